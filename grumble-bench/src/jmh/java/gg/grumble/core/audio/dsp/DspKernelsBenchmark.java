@@ -0,0 +1,74 @@
+package gg.grumble.core.audio.dsp;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLES_PER_FRAME_TOTAL;
+
+/**
+ * Each kernel over one 20 ms stereo frame, scalar against Vector API.
+ */
+@State(Scope.Thread)
+public class DspKernelsBenchmark {
+    @Param({"scalar", "vector"})
+    private String kernels;
+
+    private DspKernels dsp;
+
+    private final float[] mix = new float[SAMPLES_PER_FRAME_TOTAL];
+    private final float[] pcm = new float[SAMPLES_PER_FRAME_TOTAL];
+    private final short[] shorts = new short[SAMPLES_PER_FRAME_TOTAL];
+    private final byte[] bytes = new byte[SAMPLES_PER_FRAME_TOTAL * 2];
+
+    @Setup
+    public void setup() {
+        dsp = switch (kernels) {
+            case "scalar" -> new ScalarDspKernels();
+            case "vector" -> new VectorDspKernels();
+            default -> throw new IllegalArgumentException("Unknown kernels: " + kernels);
+        };
+
+        Random random = new Random(3);
+        for (int i = 0; i < SAMPLES_PER_FRAME_TOTAL; i++) {
+            pcm[i] = random.nextFloat() * 2 - 1;
+            mix[i] = (random.nextFloat() * 2 - 1) * 1.5f;
+            shorts[i] = (short) random.nextInt();
+        }
+        dsp.shortsToPcm16(shorts, shorts.length, bytes, 0);
+    }
+
+    @Benchmark
+    public float[] mulAdd() {
+        dsp.mulAdd(mix, pcm, 0.5f, SAMPLES_PER_FRAME_TOTAL);
+        return mix;
+    }
+
+    @Benchmark
+    public float sumOfSquaresFloat() {
+        return dsp.sumOfSquares(pcm, SAMPLES_PER_FRAME_TOTAL);
+    }
+
+    @Benchmark
+    public long sumOfSquaresShort() {
+        return dsp.sumOfSquares(shorts, SAMPLES_PER_FRAME_TOTAL);
+    }
+
+    @Benchmark
+    public byte[] softLimitToPcm16() {
+        dsp.softLimitToPcm16(mix, SAMPLES_PER_FRAME_TOTAL, bytes, 0);
+        return bytes;
+    }
+
+    @Benchmark
+    public short[] pcm16ToShorts() {
+        dsp.pcm16ToShorts(bytes, 0, shorts, SAMPLES_PER_FRAME_TOTAL);
+        return shorts;
+    }
+
+    @Benchmark
+    public byte[] shortsToPcm16() {
+        dsp.shortsToPcm16(shorts, SAMPLES_PER_FRAME_TOTAL, bytes, 0);
+        return bytes;
+    }
+}
@@ -0,0 +1,81 @@
+package gg.grumble.core.client;
+
+import gg.grumble.core.enums.MumbleExecutionMode;
+import gg.grumble.core.enums.MumbleMessageType;
+import gg.grumble.core.net.MumbleEventLoopGroup;
+import gg.grumble.core.opus.SampleFrames;
+import gg.grumble.mumble.MumbleProto;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A fleet of headless clients in one process, each receiving a voice packet from a speaker and handling an event
+ * with a listener that blocks for a moment, like one waiting on a UI thread. Live threads and heap in use after a GC are printed at the end of the run.
+ * Platform thread stacks aren't on the heap, virtual thread stacks are.
+ */
+@State(Scope.Benchmark)
+public class MumbleClientFleetBenchmark {
+    private static final int CLIENTS = 1000;
+    private static final long LISTENER_BLOCK_MILLIS = 1;
+
+    @Param({"PLATFORM_THREADS", "VIRTUAL_THREADS"})
+    private MumbleExecutionMode mode;
+
+    private final List<MumbleClient> clients = new ArrayList<>();
+    private volatile CountDownLatch handled;
+    private byte[] packet;
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        MumbleProto.UserState speaker = MumbleProto.UserState.newBuilder()
+                .setSession(1)
+                .setName("speaker")
+                .setChannelId(0)
+                .build();
+
+        for (int i = 0; i < CLIENTS; i++) {
+            MumbleClient client = new MumbleClient(MumbleEventLoopGroup.shared(), mode);
+            client.processTcpMessage(MumbleMessageType.USER_STATE.getId(), ByteBuffer.wrap(speaker.toByteArray()));
+            client.addEventListener(MumbleEvents.Connected.class, event -> {
+                try {
+                    Thread.sleep(LISTENER_BLOCK_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.countDown();
+            });
+            clients.add(client);
+        }
+        // After the clients, which load the Opus library
+        packet = SampleFrames.encodeSineFrame();
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.gc();
+        System.out.printf("%n%d clients, %s: %d live threads, %d MB heap used%n", CLIENTS, mode,
+                ManagementFactory.getThreadMXBean().getThreadCount(),
+                ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20);
+
+        clients.forEach(MumbleClient::dispose);
+        clients.clear();
+    }
+
+    @Benchmark
+    public void receiveAndDispatch() throws InterruptedException {
+        handled = new CountDownLatch(CLIENTS);
+        MumbleEvents.Connected event = new MumbleEvents.Connected("bench");
+        for (MumbleClient client : clients) {
+            client.queueOpusAudio(1, sequence, packet, true);
+            client.fireEvent(event);
+        }
+        sequence++;
+        handled.await();
+    }
+}
@@ -0,0 +1,73 @@
+package gg.grumble.core.client;
+
+import gg.grumble.core.enums.MumbleMessageType;
+import gg.grumble.core.opus.SampleFrames;
+import gg.grumble.mumble.MumbleProto;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
+
+/**
+ * One 20 ms playback tick: every speaker delivers a packet, then the client decodes, mixes and writes to the (null) device.
+ * Idle users are connected but silent, which is what most users on a big server are.
+ */
+@State(Scope.Thread)
+public class MumbleClientMixBenchmark {
+    @Param({"1", "5", "20"})
+    private int speakers;
+
+    @Param({"0", "500"})
+    private int idleUsers;
+
+    private MumbleClient client;
+    private final List<Long> speaking = new ArrayList<>();
+    private byte[] packet;
+    private long sequence;
+
+    @Setup
+    public void setup() {
+        client = new MumbleClient();
+
+        packet = SampleFrames.encodeSineFrame();
+
+        for (int session = 1; session <= speakers + idleUsers; session++) {
+            MumbleProto.UserState state = MumbleProto.UserState.newBuilder()
+                    .setSession(session)
+                    .setName("user" + session)
+                    .setChannelId(0)
+                    .build();
+            client.processTcpMessage(MumbleMessageType.USER_STATE.getId(), ByteBuffer.wrap(state.toByteArray()));
+            if (session <= speakers) {
+                speaking.add((long) session);
+            }
+        }
+
+        // Prefill every speaker's jitter buffer so the measured ticks are steady state playback
+        for (; sequence < JITTER_PREFILL_FRAMES; sequence++) {
+            deliverFrame();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.dispose();
+    }
+
+    private void deliverFrame() {
+        // Through the client, the same way received packets get to the mixer
+        for (long session : speaking) {
+            client.queueOpusAudio(session, sequence, packet, true);
+        }
+    }
+
+    @Benchmark
+    public void mixAndPlay() {
+        deliverFrame();
+        sequence++;
+        client.mixAndPlayAudio();
+    }
+}
@@ -0,0 +1,109 @@
+package gg.grumble.core.client;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.MessageLite;
+import gg.grumble.core.enums.MumbleMessageType;
+import gg.grumble.mumble.MumbleProto;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Protobuf parsing of every TCP message type, using payloads shaped like what a server sends while syncing.
+ * Payloads are views into a larger buffer, like the ones the TCP connection hands out.
+ */
+@State(Scope.Thread)
+public class MumbleClientParseBenchmark {
+    @Param({"VERSION", "UDP_TUNNEL", "AUTHENTICATE", "PING", "SERVER_REJECT", "SERVER_SYNC", "CHANNEL_REMOVE",
+            "CHANNEL_STATE", "USER_REMOVE", "USER_STATE", "BAN_LIST", "TEXT_MESSAGE", "PERMISSION_DENIED", "ACL",
+            "QUERY_USERS", "CRYPT_SETUP", "CONTEXT_ACTION_MOD", "CONTEXT_ACTION", "USER_LIST", "VOICE_TARGET",
+            "PERMISSION_QUERY", "CODEC_VERSION", "USER_STATS", "REQUEST_BLOB", "SERVER_CONFIG", "SUGGEST_CONFIG",
+            "PLUGIN_DATA_TRANSMISSION"})
+    private MumbleMessageType type;
+
+    private ByteBuffer payload;
+
+    @Setup
+    public void setup() {
+        byte[] bytes = sampleMessage(type).toByteArray();
+        payload = ByteBuffer.allocate(bytes.length + 64).position(32).put(bytes).flip().position(32);
+    }
+
+    @Benchmark
+    public MessageLite parse() throws Exception {
+        return MumbleClient.parseProtobufMessage(type, payload);
+    }
+
+    private static MessageLite sampleMessage(MumbleMessageType type) {
+        ByteString nonce = ByteString.copyFrom(new byte[16]);
+        return switch (type) {
+            case VERSION -> MumbleProto.Version.newBuilder()
+                    .setVersionV1(0x010500).setVersionV2(0x0001000500000000L)
+                    .setRelease("1.5.735").setOs("Linux").setOsVersion("6.8").build();
+            case UDP_TUNNEL -> MumbleProto.UDPTunnel.newBuilder()
+                    .setPacket(ByteString.copyFrom(new byte[120])).build();
+            case AUTHENTICATE -> MumbleProto.Authenticate.newBuilder()
+                    .setUsername("bench").setPassword("secret").setOpus(true).addTokens("token").build();
+            case PING -> MumbleProto.Ping.newBuilder()
+                    .setTimestamp(123456789L).setGood(1000).setLate(3).setLost(2).setResync(0)
+                    .setUdpPackets(50).setTcpPackets(50).setUdpPingAvg(20.5f).setUdpPingVar(1.5f)
+                    .setTcpPingAvg(21.5f).setTcpPingVar(2.5f).build();
+            case SERVER_REJECT -> MumbleProto.Reject.newBuilder()
+                    .setType(MumbleProto.Reject.RejectType.WrongUserPW).setReason("Wrong password").build();
+            case SERVER_SYNC -> MumbleProto.ServerSync.newBuilder()
+                    .setSession(42).setMaxBandwidth(558000).setWelcomeText("<b>Welcome</b> to the server")
+                    .setPermissions(0x0F07FF).build();
+            case CHANNEL_REMOVE -> MumbleProto.ChannelRemove.newBuilder().setChannelId(12).build();
+            case CHANNEL_STATE -> MumbleProto.ChannelState.newBuilder()
+                    .setChannelId(12).setParent(0).setName("Lobby").setDescription("Hang out here")
+                    .setPosition(3).setMaxUsers(50).addLinks(13).build();
+            case USER_REMOVE -> MumbleProto.UserRemove.newBuilder()
+                    .setSession(42).setActor(1).setReason("Kicked").build();
+            case USER_STATE -> MumbleProto.UserState.newBuilder()
+                    .setSession(42).setName("bench user").setUserId(7).setChannelId(12)
+                    .setSelfMute(true).setHash("0123456789abcdef0123456789abcdef01234567")
+                    .setCommentHash(ByteString.copyFrom(new byte[20])).build();
+            case BAN_LIST -> MumbleProto.BanList.newBuilder()
+                    .addBans(MumbleProto.BanList.BanEntry.newBuilder()
+                            .setAddress(ByteString.copyFrom(new byte[16])).setMask(128)
+                            .setName("troll").setReason("Spam").setDuration(3600)).build();
+            case TEXT_MESSAGE -> MumbleProto.TextMessage.newBuilder()
+                    .setActor(42).addChannelId(12).setMessage("Hello everyone, this is a chat message").build();
+            case PERMISSION_DENIED -> MumbleProto.PermissionDenied.newBuilder()
+                    .setPermission(0x04).setChannelId(12).setSession(42)
+                    .setType(MumbleProto.PermissionDenied.DenyType.Permission).build();
+            case ACL -> MumbleProto.ACL.newBuilder()
+                    .setChannelId(12).setInheritAcls(true)
+                    .addGroups(MumbleProto.ACL.ChanGroup.newBuilder().setName("admin").addAdd(7))
+                    .addAcls(MumbleProto.ACL.ChanACL.newBuilder().setGroup("all").setGrant(0x0E)).build();
+            case QUERY_USERS -> MumbleProto.QueryUsers.newBuilder().addIds(7).addNames("bench user").build();
+            case CRYPT_SETUP -> MumbleProto.CryptSetup.newBuilder()
+                    .setKey(nonce).setClientNonce(nonce).setServerNonce(nonce).build();
+            case CONTEXT_ACTION_MOD -> MumbleProto.ContextActionModify.newBuilder()
+                    .setAction("bench_action").setText("Bench action").setContext(0x02).build();
+            case CONTEXT_ACTION -> MumbleProto.ContextAction.newBuilder()
+                    .setAction("bench_action").setSession(42).setChannelId(12).build();
+            case USER_LIST -> MumbleProto.UserList.newBuilder()
+                    .addUsers(MumbleProto.UserList.User.newBuilder().setUserId(7).setName("bench user")).build();
+            case VOICE_TARGET -> MumbleProto.VoiceTarget.newBuilder()
+                    .setId(2).addTargets(MumbleProto.VoiceTarget.Target.newBuilder().addSession(42)).build();
+            case PERMISSION_QUERY -> MumbleProto.PermissionQuery.newBuilder()
+                    .setChannelId(12).setPermissions(0x0F07FF).build();
+            case CODEC_VERSION -> MumbleProto.CodecVersion.newBuilder()
+                    .setAlpha(-2147483637).setBeta(0).setPreferAlpha(true).setOpus(true).build();
+            case USER_STATS -> MumbleProto.UserStats.newBuilder()
+                    .setSession(42).setOnlinesecs(3600).setIdlesecs(5).setBandwidth(72000)
+                    .setUdpPingAvg(20.5f).setTcpPingAvg(21.5f).setOpus(true).build();
+            case REQUEST_BLOB -> MumbleProto.RequestBlob.newBuilder()
+                    .addSessionTexture(42).addSessionComment(42).build();
+            case SERVER_CONFIG -> MumbleProto.ServerConfig.newBuilder()
+                    .setMaxBandwidth(558000).setWelcomeText("Welcome").setAllowHtml(true)
+                    .setMessageLength(5000).setImageMessageLength(131072).setMaxUsers(100).build();
+            case SUGGEST_CONFIG -> MumbleProto.SuggestConfig.newBuilder()
+                    .setVersionV2(0x0001000500000000L).setPositional(false).setPushToTalk(true).build();
+            case PLUGIN_DATA_TRANSMISSION -> MumbleProto.PluginDataTransmission.newBuilder()
+                    .setSenderSession(42).addReceiverSessions(43).setDataID("bench")
+                    .setData(ByteString.copyFrom(new byte[64])).build();
+        };
+    }
+}
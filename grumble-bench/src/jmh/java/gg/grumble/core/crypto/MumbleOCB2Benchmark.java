@@ -0,0 +1,75 @@
+package gg.grumble.core.crypto;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * UDP voice crypto at typical Opus packet sizes (20 ms frames at roughly 16, 32 and 64 kbit/s).
+ */
+@State(Scope.Thread)
+public class MumbleOCB2Benchmark {
+    @Param({"40", "80", "160"})
+    private int packetSize;
+
+    @Param({"jca", "bouncycastle"})
+    private String backend;
+
+    private MumbleOCB2 client;
+    private MumbleOCB2 server;
+
+    private byte[] plainArray;
+    private ByteBuffer plain;
+    private ByteBuffer packet;
+    private ByteBuffer decrypted;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        byte[] key = new byte[16];
+        byte[] clientNonce = new byte[16];
+        byte[] serverNonce = new byte[16];
+        random.nextBytes(key);
+        random.nextBytes(clientNonce);
+        random.nextBytes(serverNonce);
+
+        Supplier<MumbleBlockCipher> cipher = switch (backend) {
+            case "jca" -> JcaBlockCipher::new;
+            case "bouncycastle" -> BouncyCastleBlockCipher::new;
+            default -> throw new IllegalArgumentException("Unknown backend: " + backend);
+        };
+
+        client = new MumbleOCB2(cipher);
+        client.setKey(key, clientNonce, serverNonce);
+        server = new MumbleOCB2(cipher);
+        server.setKey(key, serverNonce, clientNonce);
+
+        plainArray = new byte[packetSize];
+        random.nextBytes(plainArray);
+        plain = ByteBuffer.allocateDirect(packetSize).put(plainArray).flip();
+        packet = ByteBuffer.allocateDirect(packetSize + MumbleOCB2.HEADER_SIZE);
+        decrypted = ByteBuffer.allocateDirect(packetSize);
+    }
+
+    @Benchmark
+    public byte[] encryptArray() {
+        return client.encrypt(plainArray);
+    }
+
+    @Benchmark
+    public int encryptDirectBuffer() {
+        return client.encrypt(plain, 0, packetSize, packet, 0);
+    }
+
+    /**
+     * A packet can only be decrypted once (replay protection), so decrypt is measured together with its encrypt.
+     * Subtract encryptDirectBuffer to get the decrypt cost.
+     */
+    @Benchmark
+    public int encryptDecryptDirectBuffer() throws MumbleOCB2.DecryptException {
+        int length = client.encrypt(plain, 0, packetSize, packet, 0);
+        return server.decrypt(packet, 0, length, decrypted, 0);
+    }
+}
@@ -0,0 +1,95 @@
+package gg.grumble.core.models;
+
+import gg.grumble.core.client.MumbleClient;
+import gg.grumble.core.opus.SampleFrames;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
+
+/**
+ * One 20 ms tick of a single speaker's jitter buffer: push whatever arrived this tick, then pop (and decode) a frame.
+ * Arrival patterns are precomputed so every invocation does the same amount of work.
+ */
+@State(Scope.Thread)
+public class MumbleUserJitterBenchmark {
+    private static final int PATTERN_TICKS = 1024;
+
+    @Param({"inOrder", "reordered", "lossy"})
+    private String network;
+
+    private MumbleClient client;
+    private MumbleUser user;
+
+    private byte[] packet;
+    private final float[] out = new float[SAMPLES_PER_FRAME_TOTAL];
+
+    /* Sequence offsets (relative to the pattern start) that arrive on each tick */
+    private long[][] arrivals;
+    private long sequenceBase;
+    private int tick;
+
+    @Setup
+    public void setup() {
+        client = new MumbleClient();
+        user = new MumbleUser(client, 1);
+
+        packet = SampleFrames.encodeSineFrame();
+
+        arrivals = buildArrivals(network, new Random(7));
+
+        // Fill the buffer past prefill so the measured ticks are steady state playback
+        for (int i = 0; i < JITTER_PREFILL_FRAMES; i++) {
+            user.pushOpusAudio(i, packet, true);
+        }
+        sequenceBase = JITTER_PREFILL_FRAMES;
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.dispose();
+    }
+
+    private static long[][] buildArrivals(String network, Random random) {
+        List<List<Long>> ticks = new ArrayList<>();
+        for (int i = 0; i < PATTERN_TICKS; i++) {
+            ticks.add(new ArrayList<>());
+        }
+
+        for (int seq = 0; seq < PATTERN_TICKS; seq++) {
+            switch (network) {
+                case "inOrder" -> ticks.get(seq).add((long) seq);
+                // Swap every pair, so each even packet arrives a tick late, after the odd one that follows it
+                case "reordered" -> ticks.get(Math.min(seq ^ 1, PATTERN_TICKS - 1)).add((long) seq);
+                // 5% random loss
+                case "lossy" -> {
+                    if (random.nextInt(100) >= 5) {
+                        ticks.get(seq).add((long) seq);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown network pattern: " + network);
+            }
+        }
+
+        long[][] arrivals = new long[PATTERN_TICKS][];
+        for (int i = 0; i < PATTERN_TICKS; i++) {
+            arrivals[i] = ticks.get(i).stream().mapToLong(Long::longValue).toArray();
+        }
+        return arrivals;
+    }
+
+    @Benchmark
+    public int pushAndPop() {
+        for (long offset : arrivals[tick]) {
+            user.pushOpusAudio(sequenceBase + offset, packet, true);
+        }
+        if (++tick == PATTERN_TICKS) {
+            tick = 0;
+            sequenceBase += PATTERN_TICKS;
+        }
+        return user.popPcmAudio(out, SAMPLES_PER_FRAME_TOTAL);
+    }
+}
@@ -0,0 +1,61 @@
+package gg.grumble.core.opus;
+
+import club.minnced.opus.util.OpusLibrary;
+import org.openjdk.jmh.annotations.*;
+import tomp2p.opuswrapper.Opus;
+
+import java.io.IOException;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
+
+/**
+ * One 20 ms frame through the codec wrappers, as the capture path and the mixer use them, on each backend.
+ * The packet is small, so this mostly measures the cost of getting in and out of native code.
+ * The ffm backend needs --enable-preview, which the jmh task passes.
+ */
+@State(Scope.Thread)
+public class OpusCodecBenchmark {
+    @Param({"jna", "ffm"})
+    public String backend;
+
+    private OpusDecoder decoder;
+    private OpusEncoder encoder;
+
+    private byte[] packet;
+    private final float[] pcm = new float[SAMPLES_PER_FRAME_TOTAL];
+    private final short[] capture = new short[SAMPLES_PER_FRAME];
+    private final byte[] encoded = new byte[1024];
+
+    @Setup
+    public void setup() throws IOException, ReflectiveOperationException {
+        OpusLibrary.loadFromJar();
+        OpusBackend opus = OpusBackends.byName(backend);
+        decoder = new OpusDecoder(opus, SAMPLE_RATE, CHANNELS);
+        encoder = new OpusEncoder(opus, SAMPLE_RATE, 1, Opus.OPUS_APPLICATION_VOIP);
+        packet = SampleFrames.encodeSineFrame();
+        for (int i = 0; i < capture.length; i++) {
+            capture[i] = (short) (Math.sin(i * 0.05) * 8000);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.destroy();
+        encoder.destroy();
+    }
+
+    @Benchmark
+    public int decodeFloat() {
+        return decoder.decodeFloat(packet, packet.length, pcm, SAMPLES_PER_FRAME, false);
+    }
+
+    @Benchmark
+    public int getNbSamples() {
+        return decoder.getNbSamples(packet, packet.length);
+    }
+
+    @Benchmark
+    public int encode() {
+        return encoder.encode(capture, SAMPLES_PER_FRAME, encoded);
+    }
+}
@@ -0,0 +1,35 @@
+package gg.grumble.core.opus;
+
+import tomp2p.opuswrapper.Opus;
+
+import java.util.Arrays;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLES_PER_FRAME;
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
+
+/**
+ * Encoded audio for benchmarks that need real Opus packets.
+ * The Opus library has to be loaded first, which creating a MumbleClient does.
+ */
+public final class SampleFrames {
+    private SampleFrames() {
+    }
+
+    /**
+     * @return One 20 ms mono Opus packet of a sine tone
+     */
+    public static byte[] encodeSineFrame() {
+        OpusEncoder encoder = new OpusEncoder(SAMPLE_RATE, 1, Opus.OPUS_APPLICATION_VOIP);
+        try {
+            short[] pcm = new short[SAMPLES_PER_FRAME];
+            for (int i = 0; i < pcm.length; i++) {
+                pcm[i] = (short) (Math.sin(i * 0.05) * 8000);
+            }
+            byte[] encoded = new byte[1024];
+            int length = encoder.encode(pcm, SAMPLES_PER_FRAME, encoded);
+            return Arrays.copyOf(encoded, length);
+        } finally {
+            encoder.destroy();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package gg.grumble.core.utils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One value per varint prefix class: 7, 14, 21 and 28 bit, 32 bit (0xF0), 64 bit (0xF4),
+ * negated varint (0xF8) and small negative (0xFC).
+ */
+@State(Scope.Thread)
+public class MumbleVarIntBenchmark {
+    @Param({"100", "10000", "1000000", "100000000", "3000000000", "1099511627776", "-100", "-2"})
+    private long value;
+
+    private final ByteBuffer buffer = ByteBuffer.allocate(16);
+
+    @Setup
+    public void setup() {
+        MumbleVarInt.writeVarInt(buffer, value);
+        buffer.flip();
+    }
+
+    @Benchmark
+    public int write() {
+        buffer.clear();
+        return MumbleVarInt.writeVarInt(buffer, value);
+    }
+
+    @Benchmark
+    public long read() {
+        buffer.rewind();
+        return MumbleVarInt.readVarIntLong(buffer);
+    }
+
+    @Benchmark
+    public long writeRead() {
+        buffer.clear();
+        MumbleVarInt.writeVarInt(buffer, value);
+        buffer.flip();
+        return MumbleVarInt.readVarIntLong(buffer);
+    }
+}
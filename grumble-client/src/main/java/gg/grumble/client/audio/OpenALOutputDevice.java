@@ -4,26 +4,60 @@ import gg.grumble.core.audio.output.AudioOutputDevice;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.openal.AL;
 import org.lwjgl.openal.AL10;
+import org.lwjgl.openal.AL11;
 import org.lwjgl.openal.ALC;
 import org.lwjgl.openal.ALC10;
 import org.lwjgl.openal.ALCCapabilities;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.util.concurrent.TimeUnit;
 
-import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
-import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLES_PER_FRAME_TOTAL;
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
 
+/**
+ * Streams frames through a queue of OpenAL buffers.
+ * <p>
+ * The device reports its queue to the engine, which feeds it one frame per buffer OpenAL played.
+ * The queue starts shallow, gets a frame deeper on every underrun and a frame shallower after a while without one,
+ * so it settles on the lowest latency this machine can play without gaps. Nothing is allocated after start.
+ */
 public class OpenALOutputDevice implements AudioOutputDevice {
-    private static final int MAX_BUFFERS = 4;
+    private static final int FRAME_BYTES = SAMPLES_PER_FRAME_TOTAL * 2;
+    private static final int MIN_DEPTH = 2;
+    private static final int MAX_DEPTH = OUTPUT_MAX_QUEUED_FRAMES;
+    /* Frames written while every buffer is queued wait here, the oldest are dropped past this */
+    private static final int MAX_PENDING = 4;
+    private static final long STABLE_NANOS = TimeUnit.SECONDS.toNanos(30);
 
     private long device;
     private long context;
     private int source;
     private int[] buffers;
 
-    private final ByteBuffer dataBuffer =
-            BufferUtils.createByteBuffer(SAMPLES_PER_FRAME_TOTAL * 2);
+    /* Buffers OpenAL is done with, ready to be filled */
+    private final int[] free = new int[MAX_DEPTH];
+    private int freeCount;
+    private final IntBuffer unqueued = BufferUtils.createIntBuffer(MAX_DEPTH);
+
+    private final ByteBuffer[] pending = new ByteBuffer[MAX_PENDING];
+    private int pendingHead;
+    private int pendingCount;
+
+    private int depth = MIN_DEPTH;
+    private boolean playing;
+    private long lastDepthChangeNanos;
+    private float volume = 1.0f;
+
+    private volatile long underrunCount;
+    private volatile long droppedCount;
+    private volatile int queuedLatencyMs;
+
+    public OpenALOutputDevice() {
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = BufferUtils.createByteBuffer(FRAME_BYTES);
+        }
+    }
 
     @Override
     public void start() {
@@ -38,23 +72,19 @@ public class OpenALOutputDevice implements AudioOutputDevice {
         ALCCapabilities alcCaps = ALC.createCapabilities(device);
         AL.createCapabilities(alcCaps);
 
-        // Generate source and N buffers
+        // Generate source and a buffer for the deepest queue we allow
         source = AL10.alGenSources();
-        buffers = new int[MAX_BUFFERS];
+        AL10.alSourcef(source, AL10.AL_GAIN, volume);
+        buffers = new int[MAX_DEPTH];
         for (int i = 0; i < buffers.length; i++) {
             buffers[i] = AL10.alGenBuffers();
+            free[i] = buffers[i];
         }
+        freeCount = buffers.length;
 
-        // Prefill buffers with silence to initialize
-        int bytesPerFrame = SAMPLES_PER_FRAME_TOTAL * 2; // 16-bit samples
-        ByteBuffer silence = BufferUtils.createByteBuffer(bytesPerFrame);
-        for (int bufId : buffers) {
-            AL10.alBufferData(bufId, AL10.AL_FORMAT_STEREO16, silence, SAMPLE_RATE);
-            AL10.alSourceQueueBuffers(source, bufId);
-        }
-
-        // Start playback
-        AL10.alSourcePlay(source);
+        // Playback starts once the first frames are queued
+        playing = false;
+        lastDepthChangeNanos = System.nanoTime();
     }
 
     @Override
@@ -64,55 +94,146 @@ public class OpenALOutputDevice implements AudioOutputDevice {
 
     @Override
     public void write(byte[] pcm, int offset, int length) {
-        // Prepare PCM data
-        dataBuffer.clear();
-        dataBuffer.put(pcm, offset, length);
-        dataBuffer.flip();
+        ByteBuffer frame = nextPending();
+        frame.put(pcm, offset, Math.min(length, FRAME_BYTES));
+        frame.flip();
+        update();
+    }
+
+    @Override
+    public void write(ByteBuffer pcm) {
+        ByteBuffer frame = nextPending();
+        int limit = pcm.limit();
+        pcm.limit(pcm.position() + Math.min(pcm.remaining(), FRAME_BYTES));
+        frame.put(pcm);
+        frame.flip();
+        pcm.limit(limit);
+        pcm.position(limit);
+        update();
+    }
+
+    @Override
+    public int queuedFrames() {
+        return update();
+    }
+
+    @Override
+    public int targetQueuedFrames() {
+        return depth;
+    }
+
+    /**
+     * @return Underruns since start, each one made the queue a frame deeper
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * @return Frames dropped because they were written faster than OpenAL played them
+     */
+    public long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return Audio written but not heard yet, as of the last write or poll
+     */
+    public int getQueuedLatencyMs() {
+        return queuedLatencyMs;
+    }
+
+    /**
+     * @return The queue depth currently aimed for
+     */
+    public int getQueueDepthMs() {
+        return depth * PLAYBACK_DURATION_MS;
+    }
+
+    private ByteBuffer nextPending() {
+        if (pendingCount == MAX_PENDING) {
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingCount--;
+            droppedCount++;
+        }
+        ByteBuffer frame = pending[(pendingHead + pendingCount) % MAX_PENDING];
+        pendingCount++;
+        frame.clear();
+        return frame;
+    }
+
+    /**
+     * Take back played buffers, adapt the depth, queue pending frames and keep the source playing.
+     *
+     * @return Frames queued or pending
+     */
+    private int update() {
+        long now = System.nanoTime();
+
+        if (playing && AL10.alGetSourcei(source, AL10.AL_SOURCE_STATE) != AL10.AL_PLAYING) {
+            // OpenAL stops a source that plays its last buffer
+            playing = false;
+            underrunCount++;
+            lastDepthChangeNanos = now;
+            if (depth < MAX_DEPTH) {
+                depth++;
+            }
+        } else if (playing && depth > MIN_DEPTH && now - lastDepthChangeNanos > STABLE_NANOS) {
+            depth--;
+            lastDepthChangeNanos = now;
+        }
 
-        // Dequeue any processed buffers
         int processed = AL10.alGetSourcei(source, AL10.AL_BUFFERS_PROCESSED);
         if (processed > 0) {
-            IntBuffer unq = BufferUtils.createIntBuffer(processed);
-            AL10.alSourceUnqueueBuffers(source, unq);
+            unqueued.clear().limit(processed);
+            AL10.alSourceUnqueueBuffers(source, unqueued);
             checkError("alSourceUnqueueBuffers");
-
-            // Refill & requeue each freed buffer
             for (int i = 0; i < processed; i++) {
-                int bufId = unq.get(i);
-                AL10.alBufferData(bufId, AL10.AL_FORMAT_STEREO16, dataBuffer, SAMPLE_RATE);
-                checkError("alBufferData");
-
-                // rewind data for next fill
-                dataBuffer.rewind();
-
-                AL10.alSourceQueueBuffers(source, bufId);
-                checkError("alSourceQueueBuffers");
+                free[freeCount++] = unqueued.get(i);
             }
         }
 
-        // Ensure playback continues
-        int state  = AL10.alGetSourcei(source, AL10.AL_SOURCE_STATE);
-        int queued = AL10.alGetSourcei(source, AL10.AL_BUFFERS_QUEUED);
-        checkError("alGetSourcei(STATE/QUEUED)");
-        if (queued > 0 && state != AL10.AL_PLAYING) {
+        while (pendingCount > 0 && freeCount > 0) {
+            int bufId = free[--freeCount];
+            AL10.alBufferData(bufId, AL10.AL_FORMAT_STEREO16, pending[pendingHead], SAMPLE_RATE);
+            checkError("alBufferData");
+            AL10.alSourceQueueBuffers(source, bufId);
+            checkError("alSourceQueueBuffers");
+            pendingHead = (pendingHead + 1) % MAX_PENDING;
+            pendingCount--;
+        }
+
+        int queued = buffers.length - freeCount;
+        if (!playing && queued >= depth) {
+            // Start, or restart after an underrun, with a full queue
             AL10.alSourcePlay(source);
             checkError("alSourcePlay");
+            playing = true;
         }
+
+        int playedSamples = playing ? AL10.alGetSourcei(source, AL11.AL_SAMPLE_OFFSET) : 0;
+        long queuedSamples = (long) (queued + pendingCount) * SAMPLES_PER_FRAME - playedSamples;
+        queuedLatencyMs = (int) (Math.max(0, queuedSamples) * 1000 / SAMPLE_RATE);
+
+        return queued + pendingCount;
     }
 
     @Override
     public void setVolume(float volume) {
-        volume = Math.max(0f, Math.min(1f, volume));
-        AL10.alSourcef(source, AL10.AL_GAIN, volume);
+        this.volume = Math.max(0f, Math.min(1f, volume));
+        if (source != 0) {
+            AL10.alSourcef(source, AL10.AL_GAIN, this.volume);
+        }
     }
 
     @Override
     public float getVolume() {
-        return AL10.alGetSourcef(source, AL10.AL_GAIN);
+        return volume;
     }
 
     @Override
     public void close() {
+        if (source == 0) return;
         // Stop source
         AL10.alSourceStop(source);
         // Delete source and buffers
@@ -120,6 +241,7 @@ public class OpenALOutputDevice implements AudioOutputDevice {
         for (int bufId : buffers) {
             AL10.alDeleteBuffers(bufId);
         }
+        source = 0;
         // Destroy context and close device
         ALC10.alcMakeContextCurrent(0);
         ALC10.alcDestroyContext(context);
@@ -132,4 +254,4 @@ public class OpenALOutputDevice implements AudioOutputDevice {
             System.err.println("OpenAL error after " + label + ": " + err);
         }
     }
-}
\ No newline at end of file
+}
@@ -5,15 +5,18 @@ import gg.grumble.core.audio.input.NullAudioInputDevice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 import java.util.function.Consumer;
 
 import static gg.grumble.core.enums.MumbleAudioConfig.PLAYBACK_DURATION_MS;
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
 
 public class AudioInput {
     private static final Logger LOG = LoggerFactory.getLogger(AudioInput.class);
 
+    private final ThreadFactory threads;
     private Thread audioThread;
     private volatile boolean running;
     private long intervalNanos;
@@ -24,10 +27,29 @@ public class AudioInput {
 
     private float volume = 0.5f;
 
+    /* Read into by the device every frame, input thread only */
+    private byte[] frame = new byte[0];
+
     /**
-     * @param onAudioOut a Consumer that will accept the output PCM data
+     * @param onAudioOut a Consumer that will accept the output PCM data.
+     *                   The array is reused for the next frame, so it's only valid during the call
      */
     public AudioInput(Consumer<byte[]> onAudioOut) {
+        this(onAudioOut, r -> {
+            Thread t = new Thread(r, "input");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * @param onAudioOut a Consumer that will accept the output PCM data.
+     *                   The array is reused for the next frame, so it's only valid during the call
+     * @param threads    Makes the thread the loop runs on, each time it's started
+     */
+    public AudioInput(Consumer<byte[]> onAudioOut, ThreadFactory threads) {
+        this.threads = threads;
         this.task = onAudioOut;
         this.audioDevice = new NullAudioInputDevice();
         this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(PLAYBACK_DURATION_MS);
@@ -47,9 +69,7 @@ public class AudioInput {
     public synchronized void start() {
         if (running) return;
         running = true;
-        audioThread = new Thread(this::runLoop, "input");
-        audioThread.setDaemon(true);
-        audioThread.setPriority(Thread.MAX_PRIORITY);
+        audioThread = threads.newThread(this::runLoop);
         audioThread.start();
     }
 
@@ -107,7 +127,12 @@ public class AudioInput {
 
             // read microphone for the given interval and accept it
             try {
-                task.accept(audioDevice.read(getFrameDurationMillis()));
+                int frameBytes = getFrameDurationMillis() * (SAMPLE_RATE / 1000) * 2;
+                if (frame.length != frameBytes) {
+                    frame = new byte[frameBytes];
+                }
+                audioDevice.read(frame, 0, frameBytes);
+                task.accept(frame);
             } catch (Exception e) {
                 LOG.error("Error in audio input handler", e);
             }
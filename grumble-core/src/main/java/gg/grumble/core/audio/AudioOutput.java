@@ -5,22 +5,30 @@ import gg.grumble.core.audio.output.NullAudioOutputDevice;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.LockSupport;
 
-import static gg.grumble.core.enums.MumbleAudioConfig.PLAYBACK_DURATION_MS;
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
 
 /**
- * Drives audio mixing and playback at a fixed interval on its own thread.
- * Accepts a Runnable that performs mixing and writes to audioOutput.
+ * Drives audio mixing and playback on its own thread.
+ * Accepts a Runnable that performs mixing and writes one frame to audioOutput.
  * Allows hot-swapping the AudioOutput on the audio thread without restarting the thread.
+ * <p>
+ * Devices that report {@link AudioOutputDevice#queuedFrames()} are fed on their own clock: the engine polls them
+ * and mixes a frame for every frame they played, keeping the latency target queued. Others get a frame
+ * every {@code PLAYBACK_DURATION_MS} of system time.
  */
 public class AudioOutput {
     private static final Logger LOG = LoggerFactory.getLogger(AudioOutput.class);
 
+    private final ThreadFactory threads;
     private Thread audioThread;
     private volatile boolean running;
     private final long intervalNanos;
+    private final long pollNanos;
 
     private final Runnable task;
     private AudioOutputDevice audioDevice;
@@ -28,13 +36,34 @@ public class AudioOutput {
 
     private float volume = 0.5f;
 
+    private volatile int latencyTargetFrames = OUTPUT_LATENCY_TARGET_FRAMES;
+    private volatile long underrunCount;
+    /* Whether the current device has been fed yet, it's empty before that without underrunning */
+    private boolean primed;
+
     /**
      * @param task a Runnable that mixes audio and writes to audioOutput
      */
     public AudioOutput(Runnable task) {
+        this(task, r -> {
+            Thread t = new Thread(r, "audio");
+            t.setDaemon(true);
+            t.setPriority(Thread.MAX_PRIORITY);
+            return t;
+        });
+    }
+
+    /**
+     * @param task a Runnable that mixes audio and writes to audioOutput
+     * @param threads Makes the thread the loop runs on, each time it's started
+     */
+    public AudioOutput(Runnable task, ThreadFactory threads) {
+        this.threads = threads;
         this.task = task;
         this.audioDevice = new NullAudioOutputDevice();
         this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(PLAYBACK_DURATION_MS);
+        // A queue of a couple of frames can't drain between polls
+        this.pollNanos = intervalNanos / 4;
     }
 
     /**
@@ -43,9 +72,7 @@ public class AudioOutput {
     public synchronized void start() {
         if (running) return;
         running = true;
-        audioThread = new Thread(this::runLoop, "audio");
-        audioThread.setDaemon(true);
-        audioThread.setPriority(Thread.MAX_PRIORITY);
+        audioThread = threads.newThread(this::runLoop);
         audioThread.start();
     }
 
@@ -62,10 +89,37 @@ public class AudioOutput {
         return volume;
     }
 
+    /**
+     * How much audio to keep queued in devices that report their queue, rounded up to whole frames.
+     * Devices with a {@link AudioOutputDevice#targetQueuedFrames()} of their own ignore it.
+     * Lower is less delay, but a busy machine will underrun.
+     *
+     * @param latencyMs Target latency in milliseconds
+     */
+    public void setLatencyTargetMs(int latencyMs) {
+        int frames = (latencyMs + PLAYBACK_DURATION_MS - 1) / PLAYBACK_DURATION_MS;
+        this.latencyTargetFrames = Math.max(1, Math.min(frames, OUTPUT_MAX_QUEUED_FRAMES));
+    }
+
+    public int getLatencyTargetMs() {
+        return latencyTargetFrames * PLAYBACK_DURATION_MS;
+    }
+
+    /**
+     * @return Times a device reporting its queue ran dry since the engine started
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
     public void write(byte[] pcm, int offset, int length) {
         audioDevice.write(pcm, offset, length);
     }
 
+    public void write(ByteBuffer pcm) {
+        audioDevice.write(pcm);
+    }
+
     /**
      * Requests a swap to a new AudioOutput device.
      * If engine is running, swap happens on the audio thread at interval boundary.
@@ -80,7 +134,7 @@ public class AudioOutput {
     }
 
     /**
-     * Main fixed-rate loop: perform device swaps, execute task each interval, then cleanup.
+     * Main loop: perform device swaps, feed the device on its own clock or ours, then cleanup.
      */
     private void runLoop() {
         // Initialize playback on this thread
@@ -89,22 +143,32 @@ public class AudioOutput {
         long nextTime = System.nanoTime();
 
         while (running && !Thread.currentThread().isInterrupted()) {
-            long now = System.nanoTime();
-            long sleepNanos = nextTime - now;
-            if (sleepNanos > 0) {
-                LockSupport.parkNanos(sleepNanos);
-            }
-
             // Handle pending device swap if requested
             if (pendingDevice != null) {
                 audioDevice.stop();
                 audioDevice.close();
                 audioDevice = pendingDevice;
                 pendingDevice = null;
+                primed = false;
                 audioDevice.setVolume(volume);
                 audioDevice.start();
             }
 
+            int queued = audioDevice.queuedFrames();
+            if (queued >= 0) {
+                fill(queued);
+                LockSupport.parkNanos(pollNanos);
+                // Start on time if the next device has no clock of its own
+                nextTime = System.nanoTime();
+                continue;
+            }
+
+            long now = System.nanoTime();
+            long sleepNanos = nextTime - now;
+            if (sleepNanos > 0) {
+                LockSupport.parkNanos(sleepNanos);
+            }
+
             // perform mixing and playback
             task.run();
 
@@ -123,6 +187,25 @@ public class AudioOutput {
         audioDevice.close();
     }
 
+    /**
+     * Top a pull mode device back up to the latency target, one mix per frame it played since the last poll.
+     */
+    private void fill(int queued) {
+        if (queued == 0 && primed) {
+            underrunCount++;
+            LOG.debug("AudioOutput underrun, {} so far", underrunCount);
+        }
+        int target = audioDevice.targetQueuedFrames();
+        if (target < 0) {
+            target = latencyTargetFrames;
+        }
+        int frames = Math.min(target, OUTPUT_MAX_QUEUED_FRAMES) - queued;
+        for (int i = 0; i < frames; i++) {
+            task.run();
+        }
+        primed = true;
+    }
+
     /**
      * Stops the audio engine and releases the device.
      */
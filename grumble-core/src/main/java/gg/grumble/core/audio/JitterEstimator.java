@@ -0,0 +1,102 @@
+package gg.grumble.core.audio;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picks a playout buffer depth for one sender from how irregularly their packets arrive.
+ * <p>
+ * Inter-arrival jitter is estimated as in RFC 3550 (section 6.4.1): the mean deviation of each packet's transit time,
+ * relative to when its sequence number says it should have arrived. The target depth covers a few times that jitter.
+ * Late packets bump the target up straight away, and the bump wears off slowly while the link behaves.
+ * Not thread safe.
+ */
+public class JitterEstimator {
+    /* Packets to see before trusting the estimate over the initial depth */
+    private static final int WARMUP_PACKETS = 16;
+    /* Deviations of jitter to buffer for */
+    private static final double JITTER_MULTIPLIER = 4.0;
+    private static final long LATE_DECAY_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private final double frameMs;
+    private final int minFrames;
+    private final int maxFrames;
+    private final int initialFrames;
+
+    private double jitterMs = 0;
+    private double lastTransitMs;
+    private boolean hasTransit = false;
+    private int packets = 0;
+
+    private int lateBoost = 0;
+    private long lastLateNanos;
+
+    /**
+     * @param frameMs       Duration of one sequence number in milliseconds
+     * @param minFrames     Smallest target depth
+     * @param maxFrames     Largest target depth
+     * @param initialFrames Depth to use until enough packets were seen
+     */
+    public JitterEstimator(int frameMs, int minFrames, int maxFrames, int initialFrames) {
+        this.frameMs = frameMs;
+        this.minFrames = minFrames;
+        this.maxFrames = maxFrames;
+        this.initialFrames = initialFrames;
+    }
+
+    /**
+     * Senders restart their sequence numbers with every transmission, so transit times
+     * can only be compared within one. The jitter estimate itself carries over.
+     */
+    public void startTransmission() {
+        hasTransit = false;
+    }
+
+    /**
+     * @param sequence    Sequence number of the packet
+     * @param arrivalNanos {@link System#nanoTime()} the packet arrived at
+     */
+    public void onArrival(long sequence, long arrivalNanos) {
+        double transitMs = arrivalNanos / 1e6 - sequence * frameMs;
+        if (hasTransit) {
+            double deviation = Math.abs(transitMs - lastTransitMs);
+            jitterMs += (deviation - jitterMs) / 16;
+            packets++;
+        }
+        lastTransitMs = transitMs;
+        hasTransit = true;
+    }
+
+    /**
+     * A packet arrived after its turn to play had passed.
+     *
+     * @param nowNanos {@link System#nanoTime()}
+     */
+    public void onLate(long nowNanos) {
+        lateBoost = Math.min(lateBoost + 1, maxFrames);
+        lastLateNanos = nowNanos;
+    }
+
+    /**
+     * @param nowNanos {@link System#nanoTime()}
+     * @return Number of frames the playout buffer should hold
+     */
+    public int getTargetFrames(long nowNanos) {
+        if (lateBoost > 0 && nowNanos - lastLateNanos > LATE_DECAY_NANOS) {
+            lateBoost--;
+            lastLateNanos = nowNanos;
+        }
+
+        int frames = (int) Math.ceil(JITTER_MULTIPLIER * jitterMs / frameMs) + 1 + lateBoost;
+        if (packets < WARMUP_PACKETS) {
+            frames = Math.max(frames, initialFrames);
+        }
+        return Math.max(minFrames, Math.min(maxFrames, frames));
+    }
+
+    /**
+     * @return Estimated inter-arrival jitter in milliseconds
+     */
+    public double getJitterMs() {
+        return jitterMs;
+    }
+}
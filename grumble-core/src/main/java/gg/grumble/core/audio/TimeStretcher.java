@@ -0,0 +1,129 @@
+package gg.grumble.core.audio;
+
+/**
+ * Shortens or lengthens a decoded frame by one pitch period, so playout can drift towards its target buffer depth
+ * without audible drops or repeats.
+ * <p>
+ * This is a single-segment WSOLA: the lag where the frame best matches a shifted copy of itself is searched for,
+ * then one segment of that length is cross-faded out of (or into) the frame. Matching on the signal's own period keeps
+ * the splice in phase. Frames that aren't periodic enough (e.g. consonants) are left alone, unless they're near silent.
+ * PCM is interleaved, and nothing here allocates.
+ */
+public final class TimeStretcher {
+    /* Lag search range, covers voice pitch down to 100 Hz */
+    private static final int MIN_LAG_MS_X10 = 25;
+    private static final int MAX_LAG_MS_X10 = 100;
+
+    /* Normalized correlation a lag needs before we splice on it */
+    private static final float MIN_CORRELATION = 0.6f;
+    /* Mean square below which a frame counts as silence, and can be spliced anywhere */
+    private static final float SILENCE_ENERGY = 1e-6f;
+
+    private TimeStretcher() {
+    }
+
+    /**
+     * Remove one pitch period from a frame, in place.
+     *
+     * @param pcm        Interleaved frame, at the start of the array
+     * @param length     Number of values in the frame
+     * @param channels   Number of channels
+     * @param sampleRate Sample rate
+     * @return New length, or the same length if the frame wasn't suitable
+     */
+    public static int compress(float[] pcm, int length, int channels, int sampleRate) {
+        int frames = length / channels;
+        int lag = findLag(pcm, frames, channels, sampleRate);
+        if (lag <= 0) return length;
+
+        // Fade from x[i] into x[i + lag], which drops x[lag, 2 * lag) and joins x[2 * lag] seamlessly
+        int shift = lag * channels;
+        for (int i = 0; i < lag; i++) {
+            float w = (float) i / lag;
+            for (int c = 0; c < channels; c++) {
+                int k = i * channels + c;
+                pcm[k] = pcm[k] * (1 - w) + pcm[k + shift] * w;
+            }
+        }
+        System.arraycopy(pcm, 2 * shift, pcm, shift, length - 2 * shift);
+        return length - shift;
+    }
+
+    /**
+     * Insert one pitch period into a frame.
+     *
+     * @param in         Interleaved frame, at the start of the array
+     * @param length     Number of values in the frame
+     * @param out        Output, with room for one and a half times the frame
+     * @param channels   Number of channels
+     * @param sampleRate Sample rate
+     * @return Length written to out, or 0 if the frame wasn't suitable (out is untouched)
+     */
+    public static int expand(float[] in, int length, float[] out, int channels, int sampleRate) {
+        int frames = length / channels;
+        int lag = findLag(in, frames, channels, sampleRate);
+        if (lag <= 0) return 0;
+
+        // x[0, lag), then fade from x[lag + i] back into x[i], then x[lag, end) again
+        int shift = lag * channels;
+        System.arraycopy(in, 0, out, 0, shift);
+        for (int i = 0; i < lag; i++) {
+            float w = (float) i / lag;
+            for (int c = 0; c < channels; c++) {
+                int k = i * channels + c;
+                out[shift + k] = in[shift + k] * (1 - w) + in[k] * w;
+            }
+        }
+        System.arraycopy(in, shift, out, 2 * shift, length - shift);
+        return length + shift;
+    }
+
+    /**
+     * @return Best splice lag in frames, or 0 if the frame is too short or not periodic enough
+     */
+    static int findLag(float[] pcm, int frames, int channels, int sampleRate) {
+        int minLag = sampleRate * MIN_LAG_MS_X10 / 10000;
+        int maxLag = Math.min(sampleRate * MAX_LAG_MS_X10 / 10000, frames / 2);
+        // Compare windows one minimum lag long, so even the largest lag stays inside the frame
+        int window = minLag;
+        if (minLag <= 0 || maxLag < minLag || maxLag + window > frames) return 0;
+
+        float energy = 0;
+        for (int i = 0; i < frames * channels; i++) {
+            energy += pcm[i] * pcm[i];
+        }
+        if (energy / (frames * channels) < SILENCE_ENERGY) {
+            return maxLag;
+        }
+
+        int bestLag = 0;
+        float bestScore = MIN_CORRELATION;
+        // Every other sample is plenty to find the period, and halves the cost
+        for (int lag = minLag; lag <= maxLag; lag++) {
+            float xy = 0, xx = 0, yy = 0;
+            for (int i = 0; i < window; i += 2) {
+                float x = mono(pcm, i, channels);
+                float y = mono(pcm, i + lag, channels);
+                xy += x * y;
+                xx += x * x;
+                yy += y * y;
+            }
+            if (xy <= 0 || xx <= 0 || yy <= 0) continue;
+            float score = xy / (float) Math.sqrt(xx * yy);
+            if (score > bestScore) {
+                bestScore = score;
+                bestLag = lag;
+            }
+        }
+        return bestLag;
+    }
+
+    private static float mono(float[] pcm, int frame, int channels) {
+        int k = frame * channels;
+        float sum = 0;
+        for (int c = 0; c < channels; c++) {
+            sum += pcm[k + c];
+        }
+        return sum;
+    }
+}
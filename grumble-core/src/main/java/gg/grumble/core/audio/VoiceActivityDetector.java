@@ -0,0 +1,102 @@
+package gg.grumble.core.audio;
+
+import gg.grumble.core.audio.dsp.Dsp;
+
+/**
+ * Decides, frame by frame, whether a microphone stream carries speech.
+ * <p>
+ * A cheap gate on level and zero-crossing rate runs first, so quiet rooms never reach the expensive check.
+ * Frames that pass are confirmed by a speech probability, e.g. the one RNNoise gives while denoising.
+ * Once speech stops the detector stays active for a hangover, so pauses between words aren't cut.
+ * Not thread safe, apart from the thresholds, which can be changed from any thread.
+ */
+public class VoiceActivityDetector {
+    /* About -55 dBFS */
+    public static final float DEFAULT_LEVEL_THRESHOLD = 60f;
+    public static final float DEFAULT_PROBABILITY_THRESHOLD = 0.6f;
+    /* Above this share of sign changes a frame is hiss rather than voice, unless it's loud */
+    private static final float MAX_ZERO_CROSSING_RATE = 0.35f;
+    private static final float LOUD_LEVEL_MULTIPLIER = 4f;
+
+    private volatile float levelThreshold = DEFAULT_LEVEL_THRESHOLD;
+    private volatile float probabilityThreshold = DEFAULT_PROBABILITY_THRESHOLD;
+    private int hangoverFrames;
+
+    private int hangoverLeft;
+    private boolean active;
+
+    /**
+     * @param pcm    16-bit mono samples
+     * @param length Number of samples
+     * @return If the frame could be speech and is worth a closer look
+     */
+    public boolean preGate(short[] pcm, int length) {
+        if (length == 0) return false;
+        double rms = Math.sqrt(Dsp.KERNELS.sumOfSquares(pcm, length) / (double) length);
+        if (rms < levelThreshold) return false;
+        if (rms >= levelThreshold * LOUD_LEVEL_MULTIPLIER) return true;
+        return zeroCrossingRate(pcm, length) <= MAX_ZERO_CROSSING_RATE;
+    }
+
+    /**
+     * Feed the verdict for one frame.
+     *
+     * @param preGate           What {@link #preGate} said about the frame
+     * @param speechProbability Probability of speech in the frame, ignored when the pre-gate failed
+     * @return If the stream is active, speech or hangover
+     */
+    public boolean update(boolean preGate, float speechProbability) {
+        if (preGate && speechProbability >= probabilityThreshold) {
+            active = true;
+            hangoverLeft = hangoverFrames;
+        } else if (active && hangoverLeft-- <= 0) {
+            active = false;
+        }
+        return active;
+    }
+
+    public void reset() {
+        active = false;
+        hangoverLeft = 0;
+    }
+
+    /**
+     * @param hangoverMs Time to stay active after the last speech
+     * @param frameMs    Duration of a frame
+     */
+    public void setHangover(int hangoverMs, int frameMs) {
+        this.hangoverFrames = Math.max(0, (hangoverMs + frameMs - 1) / frameMs);
+    }
+
+    public float getLevelThreshold() {
+        return levelThreshold;
+    }
+
+    /**
+     * @param levelThreshold RMS level, in 16-bit sample units, below which a frame is silence
+     */
+    public void setLevelThreshold(float levelThreshold) {
+        this.levelThreshold = levelThreshold;
+    }
+
+    public float getProbabilityThreshold() {
+        return probabilityThreshold;
+    }
+
+    /**
+     * @param probabilityThreshold Speech probability from which a frame is speech, 0 to 1
+     */
+    public void setProbabilityThreshold(float probabilityThreshold) {
+        this.probabilityThreshold = probabilityThreshold;
+    }
+
+    private static float zeroCrossingRate(short[] pcm, int length) {
+        int crossings = 0;
+        for (int i = 1; i < length; i++) {
+            if ((pcm[i - 1] ^ pcm[i]) < 0) {
+                crossings++;
+            }
+        }
+        return crossings / (float) (length - 1);
+    }
+}
@@ -0,0 +1,37 @@
+package gg.grumble.core.audio.dsp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the {@link DspKernels} for this JVM once, at startup.
+ * <p>
+ * The Vector API kernels are used when the JVM was started with {@code --add-modules jdk.incubator.vector}
+ * on a little-endian CPU with SIMD, otherwise the scalar ones. Set {@code -Dgrumble.dsp.vector=false} to force scalar.
+ */
+public final class Dsp {
+    private static final Logger LOG = LoggerFactory.getLogger(Dsp.class);
+
+    public static final DspKernels KERNELS = defaultKernels();
+
+    private Dsp() {
+    }
+
+    private static DspKernels defaultKernels() {
+        if (!Boolean.parseBoolean(System.getProperty("grumble.dsp.vector", "true"))) {
+            return new ScalarDspKernels();
+        }
+        try {
+            // By name, so a JVM without the incubator module never links the class
+            DspKernels kernels = (DspKernels) Class.forName("gg.grumble.core.audio.dsp.VectorDspKernels")
+                    .getDeclaredConstructor()
+                    .newInstance();
+            LOG.debug("Using Vector API DSP kernels");
+            return kernels;
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            LOG.info("Using scalar DSP kernels, Vector API not usable: {}", cause.toString());
+            return new ScalarDspKernels();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package gg.grumble.core.audio.dsp;
+
+/**
+ * The per-sample loops of the audio path. Pick an implementation with {@link Dsp#KERNELS}.
+ * <p>
+ * Implementations give the same results as {@link ScalarDspKernels}, bit for bit, except the float sum of squares
+ * which may add in a different order. PCM is 16-bit little-endian, as the audio devices use it.
+ */
+public interface DspKernels {
+    /**
+     * {@code dst[i] += src[i] * gain}
+     */
+    void mulAdd(float[] dst, float[] src, float gain, int length);
+
+    /**
+     * @return Sum of {@code src[i] * src[i]}
+     */
+    float sumOfSquares(float[] src, int length);
+
+    /**
+     * @return Sum of {@code src[i] * src[i]}, exact
+     */
+    long sumOfSquares(short[] src, int length);
+
+    /**
+     * Soft limit each sample to (-1, 1) and write it as 16-bit PCM.
+     *
+     * @param src       Float samples
+     * @param length    Number of samples
+     * @param dst       PCM output, two bytes per sample
+     * @param dstOffset Offset into dst
+     */
+    void softLimitToPcm16(float[] src, int length, byte[] dst, int dstOffset);
+
+    /**
+     * @param src       PCM input, two bytes per sample
+     * @param srcOffset Offset into src
+     * @param dst       Sample output
+     * @param length    Number of samples
+     */
+    void pcm16ToShorts(byte[] src, int srcOffset, short[] dst, int length);
+
+    /**
+     * @param src       Samples
+     * @param length    Number of samples
+     * @param dst       PCM output, two bytes per sample
+     * @param dstOffset Offset into dst
+     */
+    void shortsToPcm16(short[] src, int length, byte[] dst, int dstOffset);
+
+    /**
+     * The limiter applied by {@link #softLimitToPcm16}, for a single sample.
+     */
+    static float softLimit(float x) {
+        float abs = Math.abs(x);
+        if (abs < 1.0f) return x;
+        return Math.signum(x) * (1.0f - 1.0f / (abs + 1.0f));
+    }
+}
@@ -0,0 +1,59 @@
+package gg.grumble.core.audio.dsp;
+
+/**
+ * Plain loops, the reference for every other implementation and the fallback when the Vector API isn't there.
+ */
+public final class ScalarDspKernels implements DspKernels {
+    @Override
+    public void mulAdd(float[] dst, float[] src, float gain, int length) {
+        for (int i = 0; i < length; i++) {
+            dst[i] += src[i] * gain;
+        }
+    }
+
+    @Override
+    public float sumOfSquares(float[] src, int length) {
+        float sum = 0.0f;
+        for (int i = 0; i < length; i++) {
+            sum += src[i] * src[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long sumOfSquares(short[] src, int length) {
+        long sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += src[i] * src[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void softLimitToPcm16(float[] src, int length, byte[] dst, int dstOffset) {
+        for (int i = 0, j = dstOffset; i < length; i++) {
+            float x = DspKernels.softLimit(src[i]);
+            short s = (short) (Math.max(-1f, Math.min(1f, x)) * 32767f);
+            dst[j++] = (byte) s;                   // low byte
+            dst[j++] = (byte) (s >>> 8);           // high byte
+        }
+    }
+
+    @Override
+    public void pcm16ToShorts(byte[] src, int srcOffset, short[] dst, int length) {
+        for (int i = 0, j = srcOffset; i < length; i++) {
+            int lo = src[j++] & 0xFF;              // low byte
+            int hi = src[j++] << 8;                // high byte (signed shift)
+            dst[i] = (short) (hi | lo);
+        }
+    }
+
+    @Override
+    public void shortsToPcm16(short[] src, int length, byte[] dst, int dstOffset) {
+        for (int i = 0, j = dstOffset; i < length; i++) {
+            short s = src[i];
+            dst[j++] = (byte) s;                   // low byte
+            dst[j++] = (byte) (s >>> 8);           // high byte, unsigned shift
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package gg.grumble.core.audio.dsp;
+
+import jdk.incubator.vector.*;
+
+import java.nio.ByteOrder;
+
+/**
+ * {@link DspKernels} on the (incubating) Vector API, using the widest vectors the CPU has.
+ * Only loaded through {@link Dsp}, since the class can't even link without {@code --add-modules jdk.incubator.vector}.
+ * PCM is converted by reinterpreting lanes, which is only little-endian on little-endian hardware.
+ */
+final class VectorDspKernels implements DspKernels {
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+    /* As many shorts as F has floats, for float <-> short conversions */
+    private static final VectorSpecies<Short> S_NARROW = VectorSpecies.of(short.class, VectorShape.forBitSize(F.length() * Short.SIZE));
+
+    private static final VectorSpecies<Short> S = ShortVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class, S.vectorShape());
+    private static final VectorSpecies<Integer> I = VectorSpecies.of(int.class, S.vectorShape());
+    private static final VectorSpecies<Long> L = VectorSpecies.of(long.class, S.vectorShape());
+
+    VectorDspKernels() {
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            throw new UnsupportedOperationException("Big-endian platform");
+        }
+        if (F.length() < 4) {
+            throw new UnsupportedOperationException("No useful vector width: " + F);
+        }
+    }
+
+    @Override
+    public void mulAdd(float[] dst, float[] src, float gain, int length) {
+        int i = 0;
+        int bound = F.loopBound(length);
+        for (; i < bound; i += F.length()) {
+            FloatVector d = FloatVector.fromArray(F, dst, i);
+            FloatVector s = FloatVector.fromArray(F, src, i);
+            // Multiply then add, not fma, to round like the scalar loop
+            d.add(s.mul(gain)).intoArray(dst, i);
+        }
+        for (; i < length; i++) {
+            dst[i] += src[i] * gain;
+        }
+    }
+
+    @Override
+    public float sumOfSquares(float[] src, int length) {
+        FloatVector acc = FloatVector.zero(F);
+        int i = 0;
+        int bound = F.loopBound(length);
+        for (; i < bound; i += F.length()) {
+            FloatVector v = FloatVector.fromArray(F, src, i);
+            acc = acc.add(v.mul(v));
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += src[i] * src[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public long sumOfSquares(short[] src, int length) {
+        // A square fits an int, but a sum of a few doesn't, so widen to longs before adding
+        LongVector acc = LongVector.zero(L);
+        int i = 0;
+        int bound = S.loopBound(length);
+        for (; i < bound; i += S.length()) {
+            ShortVector v = ShortVector.fromArray(S, src, i);
+            for (int part = 0; part < 2; part++) {
+                IntVector w = (IntVector) v.convertShape(VectorOperators.S2I, I, part);
+                IntVector sq = w.mul(w);
+                acc = acc.add(sq.convertShape(VectorOperators.I2L, L, 0))
+                        .add(sq.convertShape(VectorOperators.I2L, L, 1));
+            }
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            sum += src[i] * src[i];
+        }
+        return sum;
+    }
+
+    @Override
+    public void softLimitToPcm16(float[] src, int length, byte[] dst, int dstOffset) {
+        FloatVector one = FloatVector.broadcast(F, 1.0f);
+        int i = 0;
+        int bound = F.loopBound(length);
+        for (; i < bound; i += F.length()) {
+            FloatVector x = FloatVector.fromArray(F, src, i);
+            FloatVector abs = x.abs();
+            // Same operations as DspKernels.softLimit, lane by lane
+            FloatVector limited = one.sub(one.div(abs.add(one)));
+            limited = limited.lanewise(VectorOperators.NEG, x.compare(VectorOperators.LT, 0.0f));
+            FloatVector y = x.blend(limited, abs.compare(VectorOperators.GE, 1.0f));
+            y = y.min(1.0f).max(-1.0f).mul(32767f);
+
+            y.convertShape(VectorOperators.F2S, S_NARROW, 0)
+                    .reinterpretAsBytes()
+                    .intoArray(dst, dstOffset + 2 * i);
+        }
+        for (int j = dstOffset + 2 * i; i < length; i++) {
+            float x = DspKernels.softLimit(src[i]);
+            short s = (short) (Math.max(-1f, Math.min(1f, x)) * 32767f);
+            dst[j++] = (byte) s;
+            dst[j++] = (byte) (s >>> 8);
+        }
+    }
+
+    @Override
+    public void pcm16ToShorts(byte[] src, int srcOffset, short[] dst, int length) {
+        int i = 0;
+        int bound = S.loopBound(length);
+        for (; i < bound; i += S.length()) {
+            ByteVector.fromArray(B, src, srcOffset + 2 * i)
+                    .reinterpretAsShorts()
+                    .intoArray(dst, i);
+        }
+        for (int j = srcOffset + 2 * i; i < length; i++) {
+            int lo = src[j++] & 0xFF;
+            int hi = src[j++] << 8;
+            dst[i] = (short) (hi | lo);
+        }
+    }
+
+    @Override
+    public void shortsToPcm16(short[] src, int length, byte[] dst, int dstOffset) {
+        int i = 0;
+        int bound = S.loopBound(length);
+        for (; i < bound; i += S.length()) {
+            ShortVector.fromArray(S, src, i)
+                    .reinterpretAsBytes()
+                    .intoArray(dst, dstOffset + 2 * i);
+        }
+        for (int j = dstOffset + 2 * i; i < length; i++) {
+            short s = src[i];
+            dst[j++] = (byte) s;
+            dst[j++] = (byte) (s >>> 8);
+        }
+    }
+}
@@ -1,9 +1,28 @@
 package gg.grumble.core.audio.input;
 
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
+
 public interface AudioInputDevice {
     void start();
     void stop();
     byte[] read(int frameSizeMillis);
+
+    /**
+     * Block until the buffer range is filled with 16-bit mono PCM, without allocating.
+     * The default goes through {@link #read(int)}, devices should override it.
+     *
+     * @param buffer Buffer to fill
+     * @param offset Offset into buffer
+     * @param length Bytes to read, a whole number of milliseconds
+     * @return Bytes read
+     */
+    default int read(byte[] buffer, int offset, int length) {
+        byte[] frame = read(length / (SAMPLE_RATE / 1000 * 2));
+        int read = Math.min(frame.length, length);
+        System.arraycopy(frame, 0, buffer, offset, read);
+        return read;
+    }
+
     void setVolume(float volume);
     float getVolume();
     void close();
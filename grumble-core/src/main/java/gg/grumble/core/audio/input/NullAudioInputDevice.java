@@ -1,5 +1,6 @@
 package gg.grumble.core.audio.input;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,6 +31,18 @@ public class NullAudioInputDevice implements AudioInputDevice {
         return silenceCache.computeIfAbsent(frameSizeMillis, size -> new byte[bufferLen]);
     }
 
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int bytesPerMs = SAMPLE_RATE / 1000 * 2;
+        try {
+            Thread.sleep(length / bytesPerMs);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+        Arrays.fill(buffer, offset, offset + length, (byte) 0);
+        return length;
+    }
+
     @Override
     public void setVolume(float volume) {
 
@@ -46,16 +46,21 @@ public class TargetDataLineInputDevice implements AudioInputDevice {
         int bufferLen = numFrames * bytesPerFrame;                  // 960 x 2 = 1920 bytes
 
         byte[] buffer = new byte[bufferLen];
-        int offset = 0;
-        while (offset < bufferLen) {
-            int read = audioLine.read(buffer, offset, bufferLen - offset);
-            if (read < 0) {
+        read(buffer, 0, bufferLen);
+        return buffer;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int read = 0;
+        while (read < length) {
+            int n = audioLine.read(buffer, offset + read, length - read);
+            if (n < 0) {
                 throw new RuntimeException("End of stream reached");
             }
-            offset += read;
+            read += n;
         }
-
-        return buffer;
+        return read;
     }
 
     @Override
@@ -1,9 +1,48 @@
 package gg.grumble.core.audio.output;
 
+import java.nio.ByteBuffer;
+
 public interface AudioOutputDevice {
     void start();
     void stop();
     void write(byte[] pcm, int offset, int length);
+
+    /**
+     * Write the PCM between the buffer's position and limit, and consume it.
+     * Heap buffers are handed to {@link #write(byte[], int, int)} without a copy, devices that can take
+     * direct memory should override this.
+     */
+    default void write(ByteBuffer pcm) {
+        if (pcm.hasArray()) {
+            write(pcm.array(), pcm.arrayOffset() + pcm.position(), pcm.remaining());
+        } else {
+            byte[] copy = new byte[pcm.remaining()];
+            pcm.duplicate().get(copy);
+            write(copy, 0, copy.length);
+        }
+        pcm.position(pcm.limit());
+    }
+
+    /**
+     * Frames of {@code PLAYBACK_DURATION_MS} written but not played yet, as counted by the device itself
+     * (from its free buffer space, or its processed buffers).
+     * Devices that know this are fed in pull mode, one frame for each frame they play.
+     *
+     * @return Queued frames, or -1 if unknown, to be fed on the system clock instead
+     */
+    default int queuedFrames() {
+        return -1;
+    }
+
+    /**
+     * For pull mode devices that tune their own queue depth, e.g. to the shallowest one that doesn't underrun.
+     *
+     * @return Frames to keep queued, or -1 to use the engine's latency target
+     */
+    default int targetQueuedFrames() {
+        return -1;
+    }
+
     void setVolume(float volume);
     float getVolume();
     void close();
@@ -2,11 +2,12 @@ package gg.grumble.core.audio.output;
 
 import javax.sound.sampled.*;
 
-import static gg.grumble.core.enums.MumbleAudioConfig.CHANNELS;
-import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
+import static gg.grumble.core.enums.MumbleAudioConfig.*;
 
 @SuppressWarnings("unused")
 public class SourceDataLineOutputDevice implements AudioOutputDevice {
+    private static final int FRAME_BYTES = SAMPLES_PER_FRAME_TOTAL * 2;
+
     private final SourceDataLine audioLine;
 
     public SourceDataLineOutputDevice() throws LineUnavailableException {
@@ -19,7 +20,8 @@ public class SourceDataLineOutputDevice implements AudioOutputDevice {
         );
         DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
         audioLine = (SourceDataLine) AudioSystem.getLine(info);
-        audioLine.open(format);
+        // Room for the most we ever queue, instead of the half second lines default to
+        audioLine.open(format, OUTPUT_MAX_QUEUED_FRAMES * FRAME_BYTES);
     }
 
     @Override
@@ -37,6 +39,13 @@ public class SourceDataLineOutputDevice implements AudioOutputDevice {
         audioLine.write(pcm, offset, length);
     }
 
+    @Override
+    public int queuedFrames() {
+        int queuedBytes = audioLine.getBufferSize() - audioLine.available();
+        // Round up, a partly played frame is still queued
+        return (Math.max(0, queuedBytes) + FRAME_BYTES - 1) / FRAME_BYTES;
+    }
+
     @Override
     public void setVolume(float volume) {
         if (volume < 0f || volume > 1f) {
@@ -6,25 +6,34 @@ import de.maxhenkel.rnnoise4j.Denoiser;
 import de.maxhenkel.rnnoise4j.UnknownPlatformException;
 import gg.grumble.core.audio.AudioInput;
 import gg.grumble.core.audio.AudioOutput;
+import gg.grumble.core.audio.VoiceActivityDetector;
+import gg.grumble.core.audio.dsp.Dsp;
 import gg.grumble.core.audio.input.TargetDataLineInputDevice;
 import gg.grumble.core.audio.output.AudioOutputDevice;
 import gg.grumble.core.crypto.MumbleOCB2;
 import gg.grumble.core.enums.MumbleClientType;
+import gg.grumble.core.enums.MumbleExecutionMode;
 import gg.grumble.core.enums.MumbleMessageType;
 import gg.grumble.core.enums.MumblePacketTypeLegacy;
 import gg.grumble.core.enums.MumblePacketTypeProtobuf;
+import gg.grumble.core.enums.MumbleTransmitMode;
 import gg.grumble.core.models.MumbleChannel;
 import gg.grumble.core.models.MumbleUser;
+import gg.grumble.core.net.MumbleEventLoopGroup;
+import gg.grumble.core.net.MumbleSSLContexts;
+import gg.grumble.core.net.MumbleSendLaneStats;
 import gg.grumble.core.net.MumbleTCPConnection;
 import gg.grumble.core.net.MumbleUDPConnection;
 import gg.grumble.core.opus.OpusDecoder;
 import gg.grumble.core.opus.OpusEncoder;
+import gg.grumble.core.opus.OpusEncoderController;
 import gg.grumble.core.utils.MumbleVarInt;
 import gg.grumble.mumble.MumbleProto;
 import gg.grumble.mumble.MumbleUDPProto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -34,8 +43,6 @@ import java.util.concurrent.*;
 import java.util.function.Predicate;
 
 import static gg.grumble.core.enums.MumbleAudioConfig.*;
-import static gg.grumble.core.utils.AudioUtils.bytesToShorts;
-import static gg.grumble.core.utils.AudioUtils.shortsToBytes;
 import static tomp2p.opuswrapper.Opus.OPUS_APPLICATION_RESTRICTED_LOWDELAY;
 
 public class MumbleClient implements Closeable {
@@ -61,25 +68,42 @@ public class MumbleClient implements Closeable {
 
     private final MumbleOCB2 crypto = new MumbleOCB2();
 
+    /* Reusable UDP crypto buffers, so voice packets don't allocate on their way through the cipher */
+    private final ByteBuffer udpSendBuffer = ByteBuffer.allocateDirect(UDP_BUFFER_MAX + MumbleOCB2.HEADER_SIZE);
+    private final ByteBuffer udpReceiveBuffer = ByteBuffer.allocate(UDP_BUFFER_MAX);
+    /* Capture path buffers, input thread only, so a transmitted frame makes no garbage */
+    private short[] capturePcm = new short[0];
+    private final byte[] encodedAudio = new byte[UDP_BUFFER_MAX];
+    private final ByteBuffer audioPacket = ByteBuffer.allocate(UDP_BUFFER_MAX);
+    /* Frames waiting to be encoded together, see OpusEncoderController */
+    private short[] packetPcm = new short[0];
+    private int packetFrames;
+    private int packetFrameTarget = 1;
+    private OpusEncoderController.Settings encoderSettings;
+    private final OpusEncoderController encoderController = new OpusEncoderController();
+    private final VoiceActivityDetector voiceActivityDetector = new VoiceActivityDetector();
+    /* Set when the transmit mode changes, the input thread applies it and resets the detector before its next frame */
+    private volatile boolean transmitModePending;
+    /* Latest silent frames in voice activity mode, oldest at preRollHead */
+    private final short[][] preRoll = new short[VAD_PREROLL_FRAMES][];
+    private int preRollHead;
+    private int preRollCount;
+
     /* Audio */
     private final Denoiser denoiser;
-    private final AudioInput audioInput = new AudioInput(this::encodeAndSendAudio);
-    private final AudioOutput audioOutput = new AudioOutput(this::mixAndPlayAudio);
+    private final AudioInput audioInput;
+    private final AudioOutput audioOutput;
+    private final MumbleMixer mixer = new MumbleMixer(this);
     private final OpusEncoder opusEncoder;
-    private final Map<Long, OpusDecoder> opusDecoders = new ConcurrentHashMap<>();
+    /* Audio thread only, like the decoders themselves */
+    private final Map<Long, OpusDecoder> opusDecoders = new HashMap<>();
 
     /* Single thread event scheduler, since we want all events to be processed in order */
-    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(r -> {
-        Thread t = new Thread(r);
-        t.setName("event");
-        return t;
-    });
-
-    /* Cached thread pool, so we spin up as many threads as we need */
-    private final ExecutorService decoderExecutor = Executors.newCachedThreadPool();
+    private final ExecutorService eventExecutor;
 
+    /* Selector threads and timer, shared with other clients */
+    private final MumbleEventLoopGroup eventLoopGroup;
     /* Should just contain our scheduled TCP and UDP ping events */
-    private final ScheduledExecutorService pingScheduler = Executors.newSingleThreadScheduledExecutor();
     private final List<ScheduledFuture<?>> scheduledPings = new ArrayList<>();
 
     /* Data caches for quick lookups */
@@ -95,12 +119,25 @@ public class MumbleClient implements Closeable {
     private MumbleTCPConnection tcpConnection;
     private MumbleUDPConnection udpConnection;
 
+    /* Kept across connections so reconnect can resume the TLS session and log back in */
+    private SSLContext sslContext = MumbleSSLContexts.anonymous();
+    private String lastHostname;
+    private int lastPort;
+    private MumbleProto.Authenticate lastAuthenticate;
+    private volatile boolean reconnecting;
+
     private MumbleUser self;
 
+    /* The mode asked for, the input thread switches to it on its next frame */
+    private volatile MumbleTransmitMode transmitMode = MumbleTransmitMode.PUSH_TO_TALK;
+    /* Input thread only */
+    private MumbleTransmitMode inputTransmitMode = MumbleTransmitMode.PUSH_TO_TALK;
     private int transmitReleaseHold = 150;
-    private Timer transmitReleaseTimer;
-    private boolean transmitting = false;
-    private boolean wasTransmitting = false;
+    private ScheduledFuture<?> transmitReleaseTimer;
+    /* Push to talk key state, written by setTransmitting and the release timer */
+    private volatile boolean pushToTalk = false;
+    /* Whether the last frame was sent, written by the input thread only */
+    private volatile boolean transmitting = false;
 
     private boolean synced = false;
 
@@ -122,6 +159,40 @@ public class MumbleClient implements Closeable {
     private float udpPingDeviation = 0;
 
     public MumbleClient() {
+        this(MumbleEventLoopGroup.shared());
+    }
+
+    /**
+     * @param eventLoopGroup Group to run network I/O, pings and timers on, usually shared by every client
+     *                       in the process. It isn't closed with the client.
+     */
+    public MumbleClient(MumbleEventLoopGroup eventLoopGroup) {
+        this(eventLoopGroup, MumbleExecutionMode.PLATFORM_THREADS);
+    }
+
+    /**
+     * @param eventLoopGroup Group to run network I/O, pings and timers on, usually shared by every client
+     *                       in the process. It isn't closed with the client.
+     * @param executionMode  What runs events and the audio loops, which decode. With virtual threads, events still
+     *                       run one at a time in order, but a blocking listener or device read only parks its
+     *                       virtual thread.
+     */
+    public MumbleClient(MumbleEventLoopGroup eventLoopGroup, MumbleExecutionMode executionMode) {
+        this.eventLoopGroup = eventLoopGroup;
+        if (executionMode == MumbleExecutionMode.VIRTUAL_THREADS) {
+            // A single virtual worker keeps events in order, and costs nothing while parked waiting for them
+            this.eventExecutor = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("event").factory());
+            this.audioInput = new AudioInput(this::encodeAndSendAudio, Thread.ofVirtual().name("input").factory());
+            this.audioOutput = new AudioOutput(this::mixAndPlayAudio, Thread.ofVirtual().name("audio").factory());
+        } else {
+            this.eventExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r);
+                t.setName("event");
+                return t;
+            });
+            this.audioInput = new AudioInput(this::encodeAndSendAudio);
+            this.audioOutput = new AudioOutput(this::mixAndPlayAudio);
+        }
         try {
             OpusLibrary.loadFromJar();
             this.denoiser = new Denoiser();
@@ -133,17 +204,25 @@ public class MumbleClient implements Closeable {
         }
     }
 
-    private void processUdpMessage(byte[] encrypted) {
+    /**
+     * Decrypt and dispatch a datagram. The encrypted buffer belongs to the UDP connection's receive pool,
+     * so nothing here may hold on to it (or to udpReceiveBuffer) after returning.
+     *
+     * @param encrypted Encrypted datagram between position and limit
+     */
+    private void processUdpMessage(ByteBuffer encrypted) {
         if (LOG.isDebugEnabled()) {
             LOG.debug("Received UDP packet: {}", toHex(encrypted));
         }
         if (crypto.isInitialized()) {
             try {
-                byte[] decrypted = crypto.decrypt(encrypted);
+                // Only ever called from the UDP thread, which owns udpReceiveBuffer
+                int length = crypto.decrypt(encrypted, encrypted.position(), encrypted.remaining(), udpReceiveBuffer, 0);
+                udpReceiveBuffer.clear().limit(length);
                 if (LOG.isDebugEnabled()) {
-                    LOG.debug("Decrypted UDP packet: {}", toHex(decrypted));
+                    LOG.debug("Decrypted UDP packet: {}", toHex(udpReceiveBuffer));
                 }
-                onUdpTunnel(ByteBuffer.wrap(decrypted));
+                onUdpTunnel(udpReceiveBuffer);
             } catch (MumbleOCB2.DecryptException e) {
                 LOG.warn("Unable to decrypt UDP packet: {}", e.getMessage());
             }
@@ -183,8 +262,16 @@ public class MumbleClient implements Closeable {
         listeners.clear();
     }
 
+    /**
+     * @return True if anyone listens for the event type, so costly events can be skipped when nobody does
+     */
+    boolean hasEventListeners(Class<? extends MumbleEvents.MumbleEvent> eventType) {
+        List<MumbleEventListener<?>> eventListeners = listeners.get(eventType);
+        return eventListeners != null && !eventListeners.isEmpty();
+    }
+
     @SuppressWarnings("unchecked")
-    private <T> void fireEvent(T event) {
+    <T> void fireEvent(T event) {
         if (LOG.isTraceEnabled()) {
             LOG.trace("Firing event: {}", event.getClass().getSimpleName());
         }
@@ -209,7 +296,13 @@ public class MumbleClient implements Closeable {
 
     private void onConnectedTcp(String hostname) {
         sendVersion();
-        fireEvent(new MumbleEvents.Connected(hostname));
+        if (reconnecting) {
+            reconnecting = false;
+            sendTcp(MumbleMessageType.AUTHENTICATE, lastAuthenticate);
+            fireEvent(new MumbleEvents.Reconnected(hostname));
+        } else {
+            fireEvent(new MumbleEvents.Connected(hostname));
+        }
     }
 
     private void onServerVersion(MumbleProto.Version version) {
@@ -251,6 +344,16 @@ public class MumbleClient implements Closeable {
         tcpPingDeviation = (float) Math.pow(Math.abs(delay - tcpPingAverage), 2);
         tcpActive = true;
 
+        // The server's counters are about the packets we sent it, ours only about the ones it sent us
+        if (ping.hasGood()) {
+            encoderController.onPacketCounters(ping.getGood(), ping.getLate(), ping.getLost());
+        } else {
+            encoderController.onPacketCounters(crypto.getGood(), crypto.getLate(), crypto.getLost());
+        }
+        if (tcpUdpTunnel) {
+            encoderController.onRoundTrip(delay);
+        }
+
         fireEvent(new MumbleEvents.ServerPongTcp(ping));
     }
 
@@ -292,6 +395,9 @@ public class MumbleClient implements Closeable {
         float n = ++udpPingPackets;
         udpPingAverage += (delay - udpPingAverage) / n;
         udpPingDeviation = (float) Math.pow(Math.abs(delay - udpPingAverage), 2);
+        if (udp) {
+            encoderController.onRoundTrip(delay);
+        }
 
         if (udp && tcpUdpTunnel) {
             if (udpPingAccumulator >= UDP_TCP_PING_FALLBACK || udpSendErrorAccumulator >= UDP_TCP_SEND_FALLBACK) {
@@ -316,6 +422,9 @@ public class MumbleClient implements Closeable {
     private void onServerSync(MumbleProto.ServerSync sync) {
         this.self = users.get(Integer.toUnsignedLong(sync.getSession()));
         this.synced = true;
+        if (sync.hasMaxBandwidth()) {
+            encoderController.setServerMaxBandwidth(sync.getMaxBandwidth());
+        }
 
         LOG.info("Fully synced with server");
 
@@ -328,7 +437,7 @@ public class MumbleClient implements Closeable {
     }
 
     private void schedulePing(Runnable callback) {
-        scheduledPings.add(pingScheduler.scheduleAtFixedRate(callback, 0, PING_PERIOD_SECONDS, TimeUnit.SECONDS));
+        scheduledPings.add(eventLoopGroup.scheduleAtFixedRate(callback, 0, PING_PERIOD_SECONDS, TimeUnit.SECONDS));
     }
 
     private void unschedulePings() {
@@ -336,75 +445,204 @@ public class MumbleClient implements Closeable {
         scheduledPings.clear();
     }
 
-    private boolean isVoiceActive(short[] pcm, int threshold) {
-        long sum = 0;
-        for (short sample : pcm) {
-            sum += sample * sample;
+    private void encodeAndSendAudio(byte[] bytes) {
+        if (transmitModePending) {
+            // Cleared before the mode is read, so a change made in between is applied again next frame
+            transmitModePending = false;
+            inputTransmitMode = transmitMode;
+            // Coming back to voice activity mustn't resume a hangover from before, nobody spoke into it
+            voiceActivityDetector.reset();
+            preRollCount = 0;
+        }
+        boolean voiceActivity = inputTransmitMode == MumbleTransmitMode.VOICE_ACTIVITY;
+        boolean wasTransmitting = this.transmitting;
+        boolean transmitting = !voiceActivity && pushToTalk;
+        if (!voiceActivity && !transmitting && !wasTransmitting) {
+            // Push to talk and idle, nothing to do with the frame
+            preRollCount = 0;
+            return;
         }
 
-        double rms = Math.sqrt(sum / (double) pcm.length);
-        return rms > threshold;
-    }
+        // Convert to shorts
+        int frameSize = bytes.length / 2;
+        if (capturePcm.length != frameSize) {
+            capturePcm = new short[frameSize];
+            preRollCount = 0;
+        }
+        short[] pcm = capturePcm;
+        Dsp.KERNELS.pcm16ToShorts(bytes, 0, pcm, frameSize);
+
+        boolean denoised = false;
+        if (voiceActivity) {
+            voiceActivityDetector.setHangover(transmitReleaseHold, audioInput.getFrameDurationMillis());
+            boolean gate = voiceActivityDetector.preGate(pcm, frameSize);
+            float speechProbability = 0f;
+            if (gate) {
+                // RNNoise rates the frame while denoising it, so it's ready to encode too
+                speechProbability = denoiser.denoiseInPlace(pcm);
+                denoised = true;
+            }
+            transmitting = voiceActivityDetector.update(gate, speechProbability);
+        }
 
-    private void encodeAndSendAudio(byte[] bytes) {
         // Handle speaking state transition
         if (!wasTransmitting && transmitting) {
             self.setSpeaking(true);
             fireEvent(new MumbleEvents.UserStartSpeaking(self));
+            sendPreRoll(frameSize);
         }
 
         // Send audio if transmitting or it's the last frame
         if (transmitting || wasTransmitting) {
-            // Convert to shorts
-            short[] pcm = bytesToShorts(bytes);
-            int frameSize = pcm.length;
-
             // RNNoise
-            pcm = denoiser.denoise(pcm);
-
-            // Encode frame
-            byte[] encoded = new byte[UDP_BUFFER_MAX];
-            int encodedLen = opusEncoder.encode(pcm, frameSize, encoded);
-
-            boolean lastFrame = !transmitting;
-            if (legacyConnection) {
-                sendLegacyAudioPacket(encoded, encodedLen, lastFrame);
-            } else {
-                sendProtobufAudioPacket(encoded, encodedLen, lastFrame);
+            if (!denoised) {
+                denoiser.denoiseInPlace(pcm);
             }
+            encodeAndSendFrame(pcm, frameSize, !transmitting);
+        } else if (voiceActivity) {
+            // Silence isn't encoded or sent, only kept in case speech starts in the next frame
+            keepPreRoll(pcm, frameSize);
         }
 
         if (wasTransmitting && !transmitting) {
             self.setSpeaking(false);
             fireEvent(new MumbleEvents.UserStopSpeaking(self));
             audioSequence = 0;
+            packetFrames = 0;
+        }
+
+        this.transmitting = transmitting;
+    }
+
+    /**
+     * Add a frame to the packet being built. It's encoded and sent once it holds as many frames
+     * as the encoder controller asked for, or when the transmission ends.
+     */
+    private void encodeAndSendFrame(short[] pcm, int frameSize, boolean lastFrame) {
+        if (packetPcm.length != frameSize * OpusEncoderController.MAX_FRAMES_PER_PACKET) {
+            packetPcm = new short[frameSize * OpusEncoderController.MAX_FRAMES_PER_PACKET];
+            packetFrames = 0;
+        }
+        if (packetFrames == 0) {
+            // Settings only change between packets
+            OpusEncoderController.Settings settings = encoderController.getSettings();
+            if (settings != encoderSettings) {
+                opusEncoder.apply(settings);
+                encoderSettings = settings;
+            }
+            // Only 20 ms frames add up to frame sizes Opus has
+            packetFrameTarget = frameSize == SAMPLES_PER_FRAME ? settings.framesPerPacket() : 1;
+        }
+
+        System.arraycopy(pcm, 0, packetPcm, packetFrames * frameSize, frameSize);
+        packetFrames++;
+        if (packetFrames < packetFrameTarget && !lastFrame) {
+            return;
+        }
+
+        int frames = packetFrames;
+        packetFrames = 0;
+
+        // Encode frame
+        int encodedLen = opusEncoder.encode(packetPcm, frameSize * frames, encodedAudio);
+        if (encodedLen <= 2 && !lastFrame) {
+            // DTX silence, not worth a packet. The receiver conceals the gap
+            audioSequence += frames;
+            return;
         }
 
-        wasTransmitting = transmitting;
+        if (legacyConnection) {
+            sendLegacyAudioPacket(encodedAudio, encodedLen, lastFrame, frames);
+        } else {
+            sendProtobufAudioPacket(encodedAudio, encodedLen, lastFrame, frames);
+        }
     }
 
-    private void sendProtobufAudioPacket(byte[] encoded, int encodedLen, boolean lastFrame) {
-        MumbleUDPProto.Audio.Builder audio = MumbleUDPProto.Audio.newBuilder();
-        audio.setFrameNumber(audioSequence++);
-        audio.setIsTerminator(lastFrame);
-        audio.setOpusData(ByteString.copyFrom(encoded, 0, encodedLen));
-        audio.setTarget(this.audioTarget);
+    private void keepPreRoll(short[] pcm, int frameSize) {
+        if (preRollCount == preRoll.length) {
+            preRollHead = (preRollHead + 1) % preRoll.length;
+            preRollCount--;
+        }
+        int slot = (preRollHead + preRollCount) % preRoll.length;
+        if (preRoll[slot] == null || preRoll[slot].length != frameSize) {
+            preRoll[slot] = new short[frameSize];
+        }
+        System.arraycopy(pcm, 0, preRoll[slot], 0, frameSize);
+        preRollCount++;
+    }
 
-        byte[] payload = audio.build().toByteArray();
+    private void sendPreRoll(int frameSize) {
+        for (int i = 0; i < preRollCount; i++) {
+            encodeAndSendFrame(preRoll[(preRollHead + i) % preRoll.length], frameSize, false);
+        }
+        preRollCount = 0;
+    }
 
-        ByteBuffer buffer = ByteBuffer.allocate(1 + 10 + payload.length);
-        buffer.put((byte) MumblePacketTypeProtobuf.AUDIO.getId());
-        MumbleVarInt.writeVarInt(buffer, payload.length);
-        buffer.put(payload);
-        buffer.flip();
+    /**
+     * Construct a protobuf audio packet and send it.
+     *
+     * @param encoded    Encoded audio data
+     * @param encodedLen Length of encoded audio data
+     * @param lastFrame  If this is the final frame of audio
+     * @param frames     Number of 20 ms frames in the packet
+     */
+    private void sendProtobufAudioPacket(byte[] encoded, int encodedLen, boolean lastFrame, int frames) {
+        ByteBuffer packet = audioPacket;
+        packet.clear();
+        packet.put((byte) MumblePacketTypeProtobuf.AUDIO.getId());
+        writeProtobufAudio(packet, audioTarget & 0xFF, audioSequence, encoded, encodedLen, lastFrame);
+        audioSequence += frames;
+        packet.flip();
 
         if (this.tcpUdpTunnel) {
-            sendUdpTunnel(buffer);
+            sendUdpTunnel(packet);
         } else {
-            sendUdp(buffer);
+            sendUdp(packet);
         }
     }
 
+    /**
+     * Write an outgoing MumbleUDPProto.Audio message at the buffer's position.
+     * It's written by hand, the same bytes the generated builder would produce, but without a builder, ByteString
+     * and array per frame.
+     *
+     * @param buffer      Buffer to write to, needs room for the message
+     * @param target      Voice target
+     * @param frameNumber Number of the first frame in the packet
+     * @param opus        Encoded audio data
+     * @param opusLen     Length of encoded audio data
+     * @param terminator  If this is the final frame of audio
+     */
+    static void writeProtobufAudio(ByteBuffer buffer, int target, long frameNumber, byte[] opus, int opusLen,
+                                   boolean terminator) {
+        // target = 1, part of a oneof so written even when 0
+        buffer.put((byte) (1 << 3));
+        writeProtobufVarInt(buffer, target & 0xFFFFFFFFL);
+        if (frameNumber != 0) {
+            // frame_number = 4
+            buffer.put((byte) (4 << 3));
+            writeProtobufVarInt(buffer, frameNumber);
+        }
+        if (opusLen > 0) {
+            // opus_data = 5, length delimited
+            buffer.put((byte) (5 << 3 | 2));
+            writeProtobufVarInt(buffer, opusLen);
+            buffer.put(opus, 0, opusLen);
+        }
+        if (terminator) {
+            // is_terminator = 16, a two byte tag
+            buffer.put((byte) 0x80).put((byte) 0x01).put((byte) 1);
+        }
+    }
+
+    private static void writeProtobufVarInt(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
     /**
      * Construct a legacy audio packet and send it.
      * Structure:
@@ -418,16 +656,19 @@ public class MumbleClient implements Closeable {
      * @param encoded    Encoded audio data
      * @param encodedLen Length of encoded audio data
      * @param lastFrame  If this is the final frame of audio
+     * @param frames     Number of 20 ms frames in the packet
      */
-    private void sendLegacyAudioPacket(byte[] encoded, int encodedLen, boolean lastFrame) {
+    private void sendLegacyAudioPacket(byte[] encoded, int encodedLen, boolean lastFrame, int frames) {
         int header = encodedLen & 0x1FFF;
         if (lastFrame) {
             header |= (1 << 13);
         }
 
-        ByteBuffer packet = ByteBuffer.allocate(UDP_BUFFER_MAX);
+        ByteBuffer packet = audioPacket;
+        packet.clear();
         packet.put((byte) (((MumblePacketTypeLegacy.OPUS.getId() & 0x7) << 5) | (audioTarget & 0x1F)));
-        MumbleVarInt.writeVarInt(packet, audioSequence++);
+        MumbleVarInt.writeVarInt(packet, audioSequence);
+        audioSequence += frames;
         MumbleVarInt.writeVarInt(packet, header);
         packet.put(encoded, 0, encodedLen);
         packet.flip();
@@ -439,59 +680,12 @@ public class MumbleClient implements Closeable {
     }
 
     /**
-     * Mix all users speaking audio into a single buffer write it to audio output
+     * Mix all users speaking audio into a single buffer write it to audio output.
+     * Package-private so grumble-bench can drive it directly.
      */
-    private void mixAndPlayAudio() {
+    void mixAndPlayAudio() {
         try {
-            float[] mix = new float[SAMPLES_PER_FRAME_TOTAL];
-            float[] buf = new float[SAMPLES_PER_FRAME_TOTAL];
-
-            for (MumbleUser user : users.values()) {
-                // Skip ourselves during playback
-                if (user == self) continue;
-
-                boolean wasSpeaking = user.isSpeaking();
-                boolean nowSpeaking = false;
-
-                // Try real audio
-                int samples = user.popPcmAudio(buf, SAMPLES_PER_FRAME_TOTAL);
-                if (samples > 0) {
-                    nowSpeaking = true;
-                }
-
-                user.setSpeaking(nowSpeaking);
-
-                // Single start/stop fire
-                if (!wasSpeaking && nowSpeaking) {
-                    LOG.info("User Start Speaking: {}", user);
-                    fireEvent(new MumbleEvents.UserStartSpeaking(user));
-                } else if (wasSpeaking && !nowSpeaking) {
-                    LOG.info("User Stop Speaking: {}", user);
-                    fireEvent(new MumbleEvents.UserStopSpeaking(user));
-                }
-
-                if (nowSpeaking) {
-                    if (!user.isLocalMute()) {
-                        // Only mix if we aren't locally muted
-                        float gain = user.isAutoGainEnabled()
-                                ? computeAutoGain(buf, samples)
-                                : user.getManualGain();
-                        for (int i = 0; i < samples; i++) {
-                            mix[i] += buf[i] * gain;
-                        }
-                    }
-                    // Trigger speak event with PCM data
-                    fireEvent(new MumbleEvents.UserSpeak(user, Arrays.copyOf(buf, samples)));
-                }
-            }
-
-            // Write out final mix to sound device
-            short[] out = new short[SAMPLES_PER_FRAME_TOTAL];
-            for (int i = 0; i < out.length; i++) {
-                float x = softLimit(mix[i]);
-                out[i] = (short) (Math.max(-1f, Math.min(1f, x)) * 32767f);
-            }
-            audioOutput.write(shortsToBytes(out), 0, out.length * 2);
+            mixer.mixAndPlay(self, audioOutput);
         } catch (Exception e) {
             LOG.error("Exception in playback thread", e);
         }
@@ -513,32 +707,6 @@ public class MumbleClient implements Closeable {
         audioOutput.setVolume(volume);
     }
 
-    private float computeAutoGain(float[] pcm, int samples) {
-        float sum = 0.0f;
-        for (int i = 0; i < samples; i++) {
-            sum += pcm[i] * pcm[i];
-        }
-
-        float rms = (float) Math.sqrt(sum / samples);
-
-        final float targetRms = 0.2f;
-        final float maxGain = 3.0f;
-
-        if (rms < 1e-6f) return maxGain;
-
-        float gain = targetRms / rms;
-        return Math.min(gain, maxGain);
-    }
-
-    private float softLimit(float x) {
-        float abs = Math.abs(x);
-        if (abs < 1.0f) return x;
-        return Math.signum(x) * (1.0f - 1.0f / (abs + 1.0f));
-    }
-
-    private final ByteBuffer audioByteBuffer = ByteBuffer.allocateDirect(SAMPLES_PER_FRAME_TOTAL * 2)
-            .order(ByteOrder.LITTLE_ENDIAN);
-
     /**
      * A channel is being removed, so remove it from childrenByParent's list of children
      *
@@ -613,7 +781,7 @@ public class MumbleClient implements Closeable {
         fireEvent(new MumbleEvents.UserDisconnected(user, userRemove));
 
         removeUserFromChannel(user);
-        opusDecoders.remove(user.getSession());
+        mixer.remove(user);
     }
 
     private void onUserState(MumbleProto.UserState userState) {
@@ -728,6 +896,9 @@ public class MumbleClient implements Closeable {
     }
 
     private void onServerConfig(MumbleProto.ServerConfig serverConfig) {
+        if (serverConfig.hasMaxBandwidth()) {
+            encoderController.setServerMaxBandwidth(serverConfig.getMaxBandwidth());
+        }
         fireEvent(new MumbleEvents.ServerConfig(serverConfig));
     }
 
@@ -750,13 +921,55 @@ public class MumbleClient implements Closeable {
     public void connect(String hostname, int port) {
         close();
 
-        this.tcpConnection = new MumbleTCPConnection(hostname, port, this::onConnectedTcp, this::processTcpMessage, this::onDisconnected);
-        this.udpConnection = new MumbleUDPConnection(hostname, port, this::processUdpMessage);
+        lastHostname = hostname;
+        lastPort = port;
+        lastAuthenticate = null;
+        reconnecting = false;
+        openConnections(hostname, port);
+    }
+
+    /**
+     * Connect again to the last server, resuming the TLS session when the server still has it.
+     * If we had authenticated, the same credentials are sent again and {@link MumbleEvents.Reconnected}
+     * is fired instead of {@link MumbleEvents.Connected}.
+     */
+    public void reconnect() {
+        if (lastHostname == null) {
+            throw new IllegalStateException("Not connected before");
+        }
+        // The server is most likely the same version, so voice sent before its Version arrives uses the right format
+        boolean legacy = legacyConnection;
+        close();
+        legacyConnection = legacy;
+
+        reconnecting = lastAuthenticate != null;
+        openConnections(lastHostname, lastPort);
+    }
+
+    private void openConnections(String hostname, int port) {
+        this.tcpConnection = new MumbleTCPConnection(hostname, port, this::onConnectedTcp, this::processTcpMessage,
+                this::onDisconnected, eventLoopGroup);
+        this.udpConnection = new MumbleUDPConnection(hostname, port, this::processUdpMessage, eventLoopGroup);
+
+        tcpConnection.connect(sslContext);
+    }
 
-        tcpConnection.connect();
+    /**
+     * Set the TLS context used from the next connection on, to present a client certificate, see
+     * {@link MumbleSSLContexts#forIdentity}. Its session cache is what lets {@link #reconnect()} resume.
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = Objects.requireNonNull(sslContext);
     }
 
-    private void processTcpMessage(int type, byte[] payload) {
+    /**
+     * Handle a single framed TCP message. Package-private so grumble-bench can feed it directly.
+     *
+     * @param type    Mumble message type ID
+     * @param payload Message payload, without the frame header. A view of the connection's receive buffer,
+     *                so whatever outlives this call (parsed messages, tunneled audio) is copied out of it.
+     */
+    void processTcpMessage(int type, ByteBuffer payload) {
         MumbleMessageType messageType = MumbleMessageType.fromId(type);
 
         if (messageType == null) {
@@ -768,11 +981,10 @@ public class MumbleClient implements Closeable {
 
         try {
             if (messageType.equals(MumbleMessageType.UDP_TUNNEL)) {
-                ByteBuffer buffer = ByteBuffer.wrap(payload);
                 if (legacyConnection) {
-                    handleUdpLegacyPacket(buffer, false);
+                    handleUdpLegacyPacket(payload, false);
                 } else {
-                    handleUdpProtobufPacket(buffer, false);
+                    handleUdpProtobufPacket(payload, false);
                 }
             } else {
                 // Use protobuf parser for the message type
@@ -856,10 +1068,10 @@ public class MumbleClient implements Closeable {
     private void handleProtobufAudio(MumbleUDPProto.Audio audio) {
         long session = audio.getSenderSession();
         long sequence = audio.getFrameNumber();
-        boolean transmitting = audio.getIsTerminator();
+        boolean transmitting = !audio.getIsTerminator();
 
         byte[] payload = audio.getOpusData().toByteArray();
-        executeDecoderSession(session, sequence, payload, transmitting);
+        queueOpusAudio(session, sequence, payload, transmitting);
     }
 
     /**
@@ -896,39 +1108,43 @@ public class MumbleClient implements Closeable {
                 byte[] payload = new byte[payloadLen];
                 data.get(payload);
 
-                executeDecoderSession(session, sequence, payload, transmitting);
+                queueOpusAudio(session, sequence, payload, transmitting);
             }
             default -> throw new IllegalArgumentException("Unsupported codec: " + codec);
         }
     }
 
-    private void executeDecoderSession(long session, long sequence, byte[] payload, boolean transmitting) {
-        decoderExecutor.execute(() -> decodeOpusAndQueue(session, sequence, payload, transmitting));
-    }
-
+    /**
+     * The decoder for a session's audio, created on first use. Only call this from the audio thread,
+     * which owns the decoders (see {@link OpusDecoder}).
+     */
     public OpusDecoder getSessionDecoder(long session) {
         return opusDecoders.computeIfAbsent(session, k -> new OpusDecoder(SAMPLE_RATE, CHANNELS));
     }
 
-    private void decodeOpusAndQueue(long session, long sequence, byte[] payload, boolean transmitting) {
-        MumbleUser user = getUser(session);
-        boolean hasUser = (user != null);
-
-        OpusDecoder decoder = getSessionDecoder(session);
-        int frameSize;
-        float[] pcm;
-        int decodedSamples;
-        synchronized (decoder) {
-            frameSize = decoder.getNbSamples(payload);
-            pcm = new float[frameSize * CHANNELS];
-            Arrays.fill(pcm, 0f);
-            decodedSamples = decoder.decodeFloat(payload, pcm, frameSize);
+    /**
+     * Destroy the decoder of a session that left, on the audio thread.
+     */
+    void releaseSessionDecoder(long session) {
+        OpusDecoder decoder = opusDecoders.remove(session);
+        if (decoder != null) {
+            decoder.destroy();
         }
+    }
 
-        if (hasUser) {
-            user.pushPcmAudio(sequence, pcm, decodedSamples, transmitting);
+    /**
+     * Queue a packet for its speaker, on the loop thread that received it, so packets from one connection stay
+     * in order. It's only a jitter buffer insert, decoding waits for the audio thread.
+     * Package-private so grumble-bench can feed audio without a connection.
+     */
+    void queueOpusAudio(long session, long sequence, byte[] payload, boolean transmitting) {
+        MumbleUser user = getUser(session);
+        if (user != null) {
+            // Decoded by the mixer when it's time to play, see MumbleUser#popPcmAudio
+            user.pushOpusAudio(sequence, payload, transmitting);
+            mixer.activate(user);
         } else if (LOG.isDebugEnabled()) {
-            LOG.debug("Decoded {} samples for early user session {}", decodedSamples, session);
+            LOG.debug("Dropped {} byte frame for early user session {}", payload.length, session);
         }
     }
 
@@ -1058,7 +1274,10 @@ public class MumbleClient implements Closeable {
         }
     }
 
-    private MessageLite parseProtobufMessage(MumbleMessageType type, byte[] bytes) throws Exception {
+    /**
+     * @param bytes Payload between position and limit. Parsed in place, the message copies what it keeps.
+     */
+    static MessageLite parseProtobufMessage(MumbleMessageType type, ByteBuffer bytes) throws Exception {
         return switch (type) {
             case VERSION -> MumbleProto.Version.parseFrom(bytes);
             case UDP_TUNNEL -> MumbleProto.UDPTunnel.parseFrom(bytes);
@@ -1109,58 +1328,68 @@ public class MumbleClient implements Closeable {
     }
 
     /**
-     * Send a TCP UDP_TUNNEL packet using a raw ByteBuffer.
-     * Only used for connections to legacy servers.
+     * Send voice through the TCP UDP_TUNNEL, when UDP isn't working. It goes ahead of control messages,
+     * and old voice is dropped rather than queued behind a slow link. The framed copy comes from the
+     * connection's voice frame pool, so this doesn't allocate either.
      *
-     * @param message The UDP message we want to tunnel
+     * @param message The UDP message we want to tunnel, between position and limit
      */
-    private synchronized void sendUdpTunnel(ByteBuffer message) {
-        byte[] data = new byte[message.remaining()];
-        message.mark();
-        message.get(data);
-        message.reset();
-        sendFramed(MumbleMessageType.UDP_TUNNEL, data, MumbleMessageType.UDP_TUNNEL.name());
+    private void sendUdpTunnel(ByteBuffer message) {
+        ByteBuffer framed = tcpConnection.allocateVoiceFrame(2 + 4 + message.remaining());
+        framed.putShort((short) MumbleMessageType.UDP_TUNNEL.getId());
+        framed.putInt(message.remaining());
+        framed.put(framed.position(), message, message.position(), message.remaining());
+        framed.rewind();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Sending TCP {}: {}", MumbleMessageType.UDP_TUNNEL.name(), toHex(framed));
+        }
+        tcpConnection.sendVoice(framed);
     }
 
-    public synchronized void sendTcp(MumbleMessageType type, MessageLite message) {
+    /**
+     * @return False if too much is already queued for a slow link and the message wasn't sent, try again later
+     */
+    public synchronized boolean sendTcp(MumbleMessageType type, MessageLite message) {
         byte[] protobufBytes = message.toByteArray();
         String messageType = (message instanceof Message)
                 ? ((Message) message).getDescriptorForType().getName()
                 : message.getClass().getSimpleName();
-        sendFramed(type, protobufBytes, messageType);
+        return sendFramed(type, protobufBytes, messageType);
     }
 
-    public synchronized void sendFramed(MumbleMessageType type, byte[] data, String messageType) {
+    /**
+     * @return False if too much is already queued for a slow link and the message wasn't sent, try again later
+     */
+    public synchronized boolean sendFramed(MumbleMessageType type, byte[] data, String messageType) {
         ByteBuffer framed = frameMessage(type, data);
         if (LOG.isDebugEnabled()) {
             LOG.debug("Sending TCP {}: {}", messageType, toHex(framed));
         }
-        tcpConnection.send(framed);
+        if (!tcpConnection.send(framed)) {
+            LOG.warn("TCP send queue full, not sending {}", messageType);
+            return false;
+        }
+        return true;
     }
 
     private void sendUdp(ByteBuffer buffer) {
-        byte[] data = new byte[buffer.remaining()];
-        buffer.mark();
-        buffer.get(data);
-        buffer.reset();
         if (LOG.isDebugEnabled()) {
+            byte header = buffer.get(buffer.position());
             if (legacyConnection) {
-                byte type = (byte) ((data[0] >> 5) & 0x7);
+                byte type = (byte) ((header >> 5) & 0x7);
                 LOG.debug("Sending UDP Legacy {}", MumblePacketTypeLegacy.fromId(type));
             } else {
-                byte type = data[0];
-                LOG.debug("Sending UDP Protobuf {}", MumblePacketTypeProtobuf.fromId(type));
+                LOG.debug("Sending UDP Protobuf {}", MumblePacketTypeProtobuf.fromId(header));
             }
+            LOG.debug("Sending UDP data: {}", toHex(buffer));
         }
-        sendUdp(data);
-    }
-
-    private void sendUdp(byte[] data) {
         try {
-            if (LOG.isDebugEnabled()) {
-                LOG.debug("Sending UDP data: {}", toHex(data));
+            // Audio and ping threads both send, so they take turns with the shared send buffer
+            synchronized (udpSendBuffer) {
+                int length = crypto.encrypt(buffer, buffer.position(), buffer.remaining(), udpSendBuffer, 0);
+                udpSendBuffer.clear().limit(length);
+                udpConnection.send(udpSendBuffer);
             }
-            udpConnection.send(crypto.encrypt(data));
             udpSendErrorAccumulator = 0;
         } catch (IOException e) {
             if (++udpSendErrorAccumulator > UDP_TCP_PING_FALLBACK && !tcpUdpTunnel) {
@@ -1208,7 +1437,8 @@ public class MumbleClient implements Closeable {
         if (tokens != null) {
             auth.addAllTokens(tokens);
         }
-        sendTcp(MumbleMessageType.AUTHENTICATE, auth.build());
+        lastAuthenticate = auth.build();
+        sendTcp(MumbleMessageType.AUTHENTICATE, lastAuthenticate);
     }
 
     private void pingTcp() {
@@ -1257,6 +1487,8 @@ public class MumbleClient implements Closeable {
             LOG.warn("[UDP] Server no longer responding to UDP pings, falling back to TCP..");
             tcpUdpTunnel = true;
             fireEvent(new MumbleEvents.TcpTunnelActive(true));
+            // In case the server moved, so later pings can bring UDP back. Looked up off the timer thread
+            udpConnection.resolve();
         }
         udpPingAccumulator++;
     }
@@ -1333,35 +1565,92 @@ public class MumbleClient implements Closeable {
         this.transmitReleaseHold = transmitReleaseHold;
     }
 
+    /**
+     * @return Queue depth and wait times of voice tunneled over TCP, null when not connected
+     */
+    public MumbleSendLaneStats getTcpVoiceStats() {
+        return tcpConnection != null ? tcpConnection.getVoiceStats() : null;
+    }
+
+    /**
+     * @return Queue depth and wait times of control messages, null when not connected
+     */
+    public MumbleSendLaneStats getTcpControlStats() {
+        return tcpConnection != null ? tcpConnection.getControlStats() : null;
+    }
+
+    /**
+     * Bandwidth budget, bitrate, complexity, DTX and packet size limits of our voice can be set here.
+     */
+    public OpusEncoderController getEncoderController() {
+        return encoderController;
+    }
+
+    public MumbleTransmitMode getTransmitMode() {
+        return transmitMode;
+    }
+
+    /**
+     * In {@link MumbleTransmitMode#VOICE_ACTIVITY} we transmit while speech is detected, and for
+     * {@link #getTransmitReleaseHold()} ms after it. {@link #setTransmitting(boolean)} is ignored then.
+     */
+    public void setTransmitMode(MumbleTransmitMode transmitMode) {
+        if (transmitReleaseTimer != null) {
+            transmitReleaseTimer.cancel(false);
+            transmitReleaseTimer = null;
+        }
+        pushToTalk = false;
+        this.transmitMode = transmitMode;
+        // Applied by the input thread, so it can't race the frame it's working on
+        transmitModePending = true;
+    }
+
+    /**
+     * @param level RMS level, in 16-bit sample units, below which the microphone is considered silent
+     */
+    public void setVoiceActivityLevel(float level) {
+        voiceActivityDetector.setLevelThreshold(level);
+    }
+
+    /**
+     * @param probability RNNoise speech probability from which a frame is speech, 0 to 1
+     */
+    public void setVoiceActivityThreshold(float probability) {
+        voiceActivityDetector.setProbabilityThreshold(probability);
+    }
+
+    /**
+     * @return If the last captured frame was sent. It follows setTransmitting or the voice activity detector from
+     * the next frame on
+     */
     public boolean isTransmitting() {
         return transmitting;
     }
 
     public void setTransmitting(boolean transmitting) {
+        if (transmitMode == MumbleTransmitMode.VOICE_ACTIVITY) {
+            return;
+        }
         if (transmitting) {
             // Cancel any pending timer if we're turning back on
             if (transmitReleaseTimer != null) {
-                transmitReleaseTimer.cancel();
+                transmitReleaseTimer.cancel(false);
                 transmitReleaseTimer = null;
             }
-            this.transmitting = true;
+            pushToTalk = true;
         } else if (transmitReleaseHold > 0) {
             // Restart the timer
             if (transmitReleaseTimer != null) {
-                transmitReleaseTimer.cancel();
+                transmitReleaseTimer.cancel(false);
             }
 
-            transmitReleaseTimer = new Timer("TransmitReleaseTimer", true);
-            transmitReleaseTimer.schedule(new TimerTask() {
-                @Override
-                public void run() {
-                    MumbleClient.this.transmitting = false;
-                    transmitReleaseTimer = null;
-                }
-            }, transmitReleaseHold);
+            transmitReleaseTimer = eventLoopGroup.schedule(() -> {
+                pushToTalk = false;
+                transmitReleaseTimer = null;
+            }, transmitReleaseHold, TimeUnit.MILLISECONDS);
 
         } else {
-            this.transmitting = false;
+            pushToTalk = false;
         }
     }
 
@@ -1370,7 +1659,10 @@ public class MumbleClient implements Closeable {
         unschedulePings();
         audioInput.stop();
         audioOutput.stop();
+        // The audio thread is stopped, so the decoders are ours now
+        opusDecoders.values().forEach(OpusDecoder::destroy);
         opusDecoders.clear();
+        mixer.clear();
         if (tcpConnection != null) tcpConnection.close();
         if (udpConnection != null) udpConnection.close();
         users.clear();
@@ -1387,13 +1679,12 @@ public class MumbleClient implements Closeable {
         udpPingPackets = 0;
         udpPingAverage = 0;
         udpPingDeviation = 0;
+        encoderController.reset();
     }
 
     public void dispose() {
         close();
         eventExecutor.close();
-        pingScheduler.close();
-        decoderExecutor.shutdown();
         removeAllEventListeners();
     }
 }
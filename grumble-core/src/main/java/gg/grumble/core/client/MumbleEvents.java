@@ -12,6 +12,12 @@ public final class MumbleEvents {
     public record Connected(String hostname) implements MumbleEvent {
     }
 
+    /**
+     * Connected again by {@link MumbleClient#reconnect()}, which has already authenticated
+     */
+    public record Reconnected(String hostname) implements MumbleEvent {
+    }
+
     public record Disconnected(String reason) implements MumbleEvent {
     }
 
@@ -0,0 +1,188 @@
+package gg.grumble.core.client;
+
+import gg.grumble.core.audio.AudioOutput;
+import gg.grumble.core.audio.dsp.Dsp;
+import gg.grumble.core.audio.dsp.DspKernels;
+import gg.grumble.core.models.MumbleUser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLES_PER_FRAME_TOTAL;
+
+/**
+ * Mixes the users that have audio to play into one frame for the output device.
+ * <p>
+ * Only users with buffered audio (or PLC left to give) are visited: users are activated when their packets arrive,
+ * and retired by the audio thread once they run dry, so a tick costs the same on a server of 5 or 500 users.
+ * All buffers are preallocated, a tick doesn't allocate unless someone listens for {@link MumbleEvents.UserSpeak}.
+ */
+final class MumbleMixer {
+    private static final Logger LOG = LoggerFactory.getLogger(MumbleMixer.class);
+
+    private final MumbleClient client;
+    private final DspKernels dsp = Dsp.KERNELS;
+
+    private final float[] mix = new float[SAMPLES_PER_FRAME_TOTAL];
+    private final float[] pcm = new float[SAMPLES_PER_FRAME_TOTAL];
+    /* Heap backed, the kernels write straight into its array */
+    private final ByteBuffer output = ByteBuffer.allocate(SAMPLES_PER_FRAME_TOTAL * 2).order(ByteOrder.LITTLE_ENDIAN);
+
+    /* Users with audio, audio thread only */
+    private final List<MumbleUser> active = new ArrayList<>();
+
+    /* Handed over to the audio thread by whoever receives packets or removes users */
+    private final Set<MumbleUser> members = ConcurrentHashMap.newKeySet();
+    private final Queue<MumbleUser> activated = new ConcurrentLinkedQueue<>();
+    private final Queue<MumbleUser> removed = new ConcurrentLinkedQueue<>();
+
+    MumbleMixer(MumbleClient client) {
+        this.client = client;
+    }
+
+    /**
+     * A user has new audio, make sure they're mixed. Cheap when they already are.
+     */
+    void activate(MumbleUser user) {
+        if (members.add(user)) {
+            activated.offer(user);
+        }
+    }
+
+    /**
+     * Stop mixing a user that left, and free their decoder.
+     */
+    void remove(MumbleUser user) {
+        removed.offer(user);
+    }
+
+    void clear() {
+        members.clear();
+        activated.clear();
+        removed.clear();
+        active.clear();
+    }
+
+    /**
+     * @return Number of users being mixed
+     */
+    int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Mix one frame from all active users and write it to the output.
+     *
+     * @param self        Our own user, never played back
+     * @param audioOutput Output to write the frame to
+     */
+    void mixAndPlay(MumbleUser self, AudioOutput audioOutput) {
+        MumbleUser user;
+        while ((user = activated.poll()) != null) {
+            if (!active.contains(user)) {
+                active.add(user);
+            }
+        }
+        while ((user = removed.poll()) != null) {
+            members.remove(user);
+            active.remove(user);
+            client.releaseSessionDecoder(user.getSession());
+        }
+
+        Arrays.fill(mix, 0f);
+        boolean speakListeners = client.hasEventListeners(MumbleEvents.UserSpeak.class);
+
+        // Backwards, so retired users can be swapped out with the last one
+        for (int i = active.size() - 1; i >= 0; i--) {
+            user = active.get(i);
+
+            // Skip ourselves during playback
+            if (user == self) {
+                retire(i);
+                continue;
+            }
+
+            boolean wasSpeaking = user.isSpeaking();
+            boolean nowSpeaking = false;
+
+            // Try real audio
+            int samples = user.popPcmAudio(pcm, SAMPLES_PER_FRAME_TOTAL);
+            if (samples > 0) {
+                nowSpeaking = true;
+            }
+
+            user.setSpeaking(nowSpeaking);
+
+            // Single start/stop fire
+            if (!wasSpeaking && nowSpeaking) {
+                LOG.info("User Start Speaking: {}", user);
+                client.fireEvent(new MumbleEvents.UserStartSpeaking(user));
+            } else if (wasSpeaking && !nowSpeaking) {
+                LOG.info("User Stop Speaking: {}", user);
+                client.fireEvent(new MumbleEvents.UserStopSpeaking(user));
+            }
+
+            if (nowSpeaking) {
+                if (!user.isLocalMute()) {
+                    // Only mix if we aren't locally muted
+                    float gain = user.isAutoGainEnabled()
+                            ? computeAutoGain(pcm, samples)
+                            : user.getManualGain();
+                    dsp.mulAdd(mix, pcm, gain, samples);
+                }
+                if (speakListeners) {
+                    // Listeners run later on the event thread, so they need their own copy
+                    client.fireEvent(new MumbleEvents.UserSpeak(user, Arrays.copyOf(pcm, samples)));
+                }
+            } else if (!user.hasPendingAudio()) {
+                retireIfIdle(i, user);
+            }
+        }
+
+        // Write out final mix to sound device
+        dsp.softLimitToPcm16(mix, SAMPLES_PER_FRAME_TOTAL, output.array(), output.arrayOffset());
+        output.clear();
+        audioOutput.write(output);
+    }
+
+    /**
+     * Stop mixing a user that ran out of audio. If a packet raced in while we decided,
+     * whoever wins the membership keeps the user mixed.
+     */
+    private void retireIfIdle(int index, MumbleUser user) {
+        members.remove(user);
+        if (user.hasPendingAudio() && members.add(user)) {
+            return;
+        }
+        retire(index);
+    }
+
+    private void retire(int index) {
+        int last = active.size() - 1;
+        active.set(index, active.get(last));
+        active.remove(last);
+    }
+
+    private float computeAutoGain(float[] pcm, int samples) {
+        float sum = dsp.sumOfSquares(pcm, samples);
+
+        float rms = (float) Math.sqrt(sum / samples);
+
+        final float targetRms = 0.2f;
+        final float maxGain = 3.0f;
+
+        if (rms < 1e-6f) return maxGain;
+
+        float gain = targetRms / rms;
+        return Math.min(gain, maxGain);
+    }
+}
@@ -0,0 +1,30 @@
+package gg.grumble.core.crypto;
+
+import org.bouncycastle.crypto.BlockCipher;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.params.KeyParameter;
+
+/**
+ * Pure Java AES block cipher from BouncyCastle, used when the JDK provider is unavailable.
+ */
+public class BouncyCastleBlockCipher implements MumbleBlockCipher {
+    private final BlockCipher encryptEngine = new AESEngine();
+    private final BlockCipher decryptEngine = new AESEngine();
+
+    @Override
+    public void init(byte[] key) {
+        KeyParameter keyParameter = new KeyParameter(key);
+        encryptEngine.init(true, keyParameter);
+        decryptEngine.init(false, keyParameter);
+    }
+
+    @Override
+    public void encryptBlock(byte[] in, byte[] out) {
+        encryptEngine.processBlock(in, 0, out, 0);
+    }
+
+    @Override
+    public void decryptBlock(byte[] in, byte[] out) {
+        decryptEngine.processBlock(in, 0, out, 0);
+    }
+}
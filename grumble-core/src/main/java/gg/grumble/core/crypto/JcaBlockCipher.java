@@ -0,0 +1,56 @@
+package gg.grumble.core.crypto;
+
+import javax.crypto.Cipher;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+
+/**
+ * AES block cipher backed by the JDK's "AES/ECB/NoPadding" implementation.
+ * HotSpot replaces its block routine with AES-NI or ARMv8 crypto instructions where available.
+ */
+public class JcaBlockCipher implements MumbleBlockCipher {
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding";
+
+    private final Cipher encryptCipher;
+    private final Cipher decryptCipher;
+
+    public JcaBlockCipher() {
+        try {
+            this.encryptCipher = Cipher.getInstance(TRANSFORMATION);
+            this.decryptCipher = Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to create " + TRANSFORMATION + " cipher", e);
+        }
+    }
+
+    @Override
+    public void init(byte[] key) {
+        SecretKeySpec spec = new SecretKeySpec(key, "AES");
+        try {
+            encryptCipher.init(Cipher.ENCRYPT_MODE, spec);
+            decryptCipher.init(Cipher.DECRYPT_MODE, spec);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("Invalid AES key", e);
+        }
+    }
+
+    @Override
+    public void encryptBlock(byte[] in, byte[] out) {
+        process(encryptCipher, in, out);
+    }
+
+    @Override
+    public void decryptBlock(byte[] in, byte[] out) {
+        process(decryptCipher, in, out);
+    }
+
+    private static void process(Cipher cipher, byte[] in, byte[] out) {
+        try {
+            // ECB without padding never buffers, so update() is a stateless single block operation
+            cipher.update(in, 0, BLOCK_SIZE, out, 0);
+        } catch (ShortBufferException e) {
+            throw new IllegalStateException("AES output block too small", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package gg.grumble.core.crypto;
+
+/**
+ * Raw AES-128 single block encryption used by {@link MumbleOCB2}.
+ * Implementations are not required to be thread safe, MumbleOCB2 keeps one instance per direction.
+ */
+public interface MumbleBlockCipher {
+    int BLOCK_SIZE = 16;
+
+    /**
+     * Expand the key schedules for both directions, called once per key.
+     *
+     * @param key 16 byte AES key
+     */
+    void init(byte[] key);
+
+    /**
+     * Encrypt exactly one block. MumbleOCB2 always passes distinct arrays, since the JDK provider copies aliased input.
+     */
+    void encryptBlock(byte[] in, byte[] out);
+
+    /**
+     * Decrypt exactly one block. MumbleOCB2 always passes distinct arrays, since the JDK provider copies aliased input.
+     */
+    void decryptBlock(byte[] in, byte[] out);
+}
@@ -1,26 +1,54 @@
 package gg.grumble.core.crypto;
 
-import org.bouncycastle.crypto.BlockCipher;
-import org.bouncycastle.crypto.engines.AESEngine;
-import org.bouncycastle.crypto.params.KeyParameter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Arrays;
+import java.util.function.Supplier;
 
 public class MumbleOCB2 {
+    private static final Logger LOG = LoggerFactory.getLogger(MumbleOCB2.class);
+
+    /**
+     * The JDK's AES (intrinsified with AES-NI / ARMv8 crypto instructions), or BouncyCastle if it's unavailable
+     */
+    private static final Supplier<MumbleBlockCipher> DEFAULT_CIPHER = defaultCipherFactory();
+
     private int good, late, lost, resync;
 
     private static final int BLOCK_SIZE = 16;
     private static final int TAG_TRUNCATED = 3;
 
-    private final BlockCipher aes = new AESEngine();
-    private byte[] key;
+    /**
+     * Bytes prepended to every encrypted packet: one IV byte followed by the truncated tag
+     */
+    public static final int HEADER_SIZE = 1 + TAG_TRUNCATED;
+
+    /*
+     * One cipher per direction, so the encrypt and decrypt paths can run concurrently under their own locks.
+     * Key schedules are expanded once per setKey() instead of once per block.
+     */
+    private final MumbleBlockCipher encryptCipher;
+    private final MumbleBlockCipher decryptCipher;
     private final byte[] encryptIV = new byte[BLOCK_SIZE];
     private final byte[] decryptIV = new byte[BLOCK_SIZE];
     private final short[] decryptHistory = new short[256];
     private boolean initialized = false;
 
+    /* Scratch state reused by every encrypt call, guarded by encryptIV */
+    private final byte[] encDelta = new byte[BLOCK_SIZE];
+    private final byte[] encChecksum = new byte[BLOCK_SIZE];
+    private final byte[] encTmp = new byte[BLOCK_SIZE];
+    private final byte[] encPad = new byte[BLOCK_SIZE];
+
+    /* Scratch state reused by every decrypt call, guarded by decryptIV */
+    private final byte[] decDelta = new byte[BLOCK_SIZE];
+    private final byte[] decChecksum = new byte[BLOCK_SIZE];
+    private final byte[] decTmp = new byte[BLOCK_SIZE];
+    private final byte[] decPad = new byte[BLOCK_SIZE];
+    private final byte[] decSaveIV = new byte[BLOCK_SIZE];
+
     public static class DecryptException extends Exception {
         public DecryptException(String message) {
             super(message);
@@ -28,24 +56,49 @@ public class MumbleOCB2 {
     }
 
     public MumbleOCB2() {
+        this(DEFAULT_CIPHER);
+    }
+
+    /**
+     * @param cipherFactory Creates the AES block cipher backend, called once for each direction
+     */
+    public MumbleOCB2(Supplier<? extends MumbleBlockCipher> cipherFactory) {
+        this.encryptCipher = cipherFactory.get();
+        this.decryptCipher = cipherFactory.get();
         Arrays.fill(decryptHistory, (short) -1);
     }
 
+    private static Supplier<MumbleBlockCipher> defaultCipherFactory() {
+        try {
+            new JcaBlockCipher();
+            return JcaBlockCipher::new;
+        } catch (IllegalStateException e) {
+            LOG.warn("JDK AES cipher unavailable, falling back to BouncyCastle", e);
+            return BouncyCastleBlockCipher::new;
+        }
+    }
+
     public boolean setKey(byte[] key, byte[] clientNonce, byte[] serverNonce) {
         if (key == null || key.length != BLOCK_SIZE
                 || clientNonce == null || clientNonce.length != BLOCK_SIZE
                 || serverNonce == null || serverNonce.length != BLOCK_SIZE)
             return false;
 
-        this.key = Arrays.copyOf(key, BLOCK_SIZE);
-        aes.init(true, new KeyParameter(this.key));
+        byte[] keyCopy = Arrays.copyOf(key, BLOCK_SIZE);
 
-        // clientNonce → encryptIV, serverNonce → decryptIV
-        System.arraycopy(clientNonce, 0, encryptIV, 0, BLOCK_SIZE);
-        System.arraycopy(serverNonce, 0, decryptIV, 0, BLOCK_SIZE);
+        synchronized (encryptIV) {
+            synchronized (decryptIV) {
+                encryptCipher.init(keyCopy);
+                decryptCipher.init(keyCopy);
 
-        Arrays.fill(decryptHistory, (short) -1);
-        initialized = true;
+                // clientNonce → encryptIV, serverNonce → decryptIV
+                System.arraycopy(clientNonce, 0, encryptIV, 0, BLOCK_SIZE);
+                System.arraycopy(serverNonce, 0, decryptIV, 0, BLOCK_SIZE);
+
+                Arrays.fill(decryptHistory, (short) -1);
+                initialized = true;
+            }
+        }
         return true;
     }
 
@@ -55,23 +108,16 @@ public class MumbleOCB2 {
 
     public boolean setDecryptIV(byte[] serverNonce) {
         if (serverNonce == null || serverNonce.length != BLOCK_SIZE) return false;
-        System.arraycopy(serverNonce, 0, decryptIV, 0, BLOCK_SIZE);
+        synchronized (decryptIV) {
+            System.arraycopy(serverNonce, 0, decryptIV, 0, BLOCK_SIZE);
+        }
         return true;
     }
 
     public byte[] getEncryptIV() {
-        return Arrays.copyOf(encryptIV, BLOCK_SIZE);
-    }
-
-    // AES-ECB encrypt/decrypt one block
-    private void aesEnc(byte[] in, byte[] out) {
-        aes.init(true, new KeyParameter(key));
-        aes.processBlock(in, 0, out, 0);
-    }
-
-    private void aesDec(byte[] in, byte[] out) {
-        aes.init(false, new KeyParameter(key));
-        aes.processBlock(in, 0, out, 0);
+        synchronized (encryptIV) {
+            return Arrays.copyOf(encryptIV, BLOCK_SIZE);
+        }
     }
 
     private static void s2(byte[] x) {
@@ -82,56 +128,93 @@ public class MumbleOCB2 {
         x[BLOCK_SIZE - 1] = (byte) (((x[BLOCK_SIZE - 1] & 0xFF) << 1) ^ (carry * 0x87));
     }
 
+    // x = x ⊕ S2(x), computed in place: each step only reads bytes that haven't been rewritten yet
     private static void s3(byte[] x) {
-        byte[] tmp = x.clone();
-        s2(tmp);
-        for (int i = 0; i < BLOCK_SIZE; i++) x[i] ^= tmp[i];
+        int carry = (x[0] & 0xFF) >>> 7;
+        for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+            x[i] ^= (byte) (((x[i] & 0xFF) << 1) | ((x[i + 1] & 0xFF) >>> 7));
+        }
+        x[BLOCK_SIZE - 1] ^= (byte) (((x[BLOCK_SIZE - 1] & 0xFF) << 1) ^ (carry * 0x87));
     }
 
-    public byte[] encrypt(byte[] plain) {
-        byte[] out = new byte[4 + plain.length];
-        byte[] ciphertext = new byte[plain.length];
-        byte[] tag = new byte[BLOCK_SIZE];
-
-        // increment IV once
-        incIV(encryptIV);
-        ocbEncrypt(plain, plain.length, encryptIV, ciphertext, tag);
+    // Block holding the bit length of the final partial block, big-endian in the last 4 bytes
+    private static void lengthBlock(byte[] x, int bits) {
+        Arrays.fill(x, 0, BLOCK_SIZE - Integer.BYTES, (byte) 0);
+        x[BLOCK_SIZE - 4] = (byte) (bits >>> 24);
+        x[BLOCK_SIZE - 3] = (byte) (bits >>> 16);
+        x[BLOCK_SIZE - 2] = (byte) (bits >>> 8);
+        x[BLOCK_SIZE - 1] = (byte) bits;
+    }
 
-        out[0] = encryptIV[0];
-        System.arraycopy(tag, 0, out, 1, TAG_TRUNCATED);
-        System.arraycopy(ciphertext, 0, out, 4, ciphertext.length);
+    public byte[] encrypt(byte[] plain) {
+        byte[] out = new byte[HEADER_SIZE + plain.length];
+        encrypt(ByteBuffer.wrap(plain), 0, plain.length, ByteBuffer.wrap(out), 0);
         return out;
     }
 
     public byte[] encrypt(ByteBuffer buffer) {
-        byte[] data = new byte[buffer.remaining()];
-        buffer.mark();
-        buffer.get(data);
-        buffer.reset();
-        return encrypt(data);
+        byte[] out = new byte[HEADER_SIZE + buffer.remaining()];
+        encrypt(buffer, buffer.position(), buffer.remaining(), ByteBuffer.wrap(out), 0);
+        return out;
     }
 
-    private void ocbEncrypt(byte[] plain, int len, byte[] nonce,
-                            byte[] out, byte[] tag) {
-        byte[] delta = new byte[BLOCK_SIZE];
-        byte[] checksum = new byte[BLOCK_SIZE];
-        byte[] tmp = new byte[BLOCK_SIZE];
-        byte[] pad = new byte[BLOCK_SIZE];
+    /**
+     * Encrypt length bytes of src starting at srcOffset, writing the complete packet (IV byte, truncated tag and
+     * ciphertext) into dst starting at dstOffset. Both buffers may be heap or direct, offsets are absolute and
+     * neither buffer's position or limit is modified. The source and destination regions must not overlap.
+     *
+     * @param src       Plaintext buffer
+     * @param srcOffset Absolute index of the first plaintext byte
+     * @param length    Number of plaintext bytes
+     * @param dst       Destination buffer, needs room for length + {@link #HEADER_SIZE} bytes before its limit
+     * @param dstOffset Absolute index the packet is written to
+     * @return Number of bytes written to dst
+     */
+    public int encrypt(ByteBuffer src, int srcOffset, int length, ByteBuffer dst, int dstOffset) {
+        int packetLength = HEADER_SIZE + length;
+        if (dst.limit() - dstOffset < packetLength) {
+            throw new IllegalArgumentException("Destination buffer too small: need " + packetLength + " bytes");
+        }
+
+        synchronized (encryptIV) {
+            // increment IV once
+            incIV(encryptIV);
+            // ciphertext goes straight after the header, tag is left in encPad
+            ocbEncrypt(src, srcOffset, length, encryptIV, dst, dstOffset + HEADER_SIZE);
+
+            dst.put(dstOffset, encryptIV[0]);
+            dst.put(dstOffset + 1, encPad, 0, TAG_TRUNCATED);
+        }
+        return packetLength;
+    }
+
+    /**
+     * OCB2 encrypt using the per-instance encrypt scratch buffers. The full tag is left in encPad.
+     * Caller must hold the encryptIV lock.
+     */
+    private void ocbEncrypt(ByteBuffer plain, int pos, int len, byte[] nonce, ByteBuffer out, int outPos) {
+        byte[] delta = encDelta;
+        byte[] checksum = encChecksum;
+        byte[] tmp = encTmp;
+        byte[] pad = encPad;
 
         // L₀ = AES-ENC(nonce)
-        aesEnc(Arrays.copyOf(nonce, BLOCK_SIZE), delta);
+        encryptCipher.encryptBlock(nonce, delta);
         Arrays.fill(checksum, (byte) 0);
 
-        int pos = 0, outPos = 0, rem = len;
+        int rem = len;
         // full blocks
         while (rem > BLOCK_SIZE) {
             s2(delta);
-            for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] = (byte) (delta[i] ^ plain[pos + i]);
-            aesEnc(tmp, tmp);
+            plain.get(pos, tmp, 0, BLOCK_SIZE);
             for (int i = 0; i < BLOCK_SIZE; i++) {
-                out[outPos + i] = (byte) (delta[i] ^ tmp[i]);
-                checksum[i] ^= plain[pos + i];
+                checksum[i] ^= tmp[i];
+                tmp[i] ^= delta[i];
             }
+            // pad is free until the final block, and keeps cipher input and output apart
+            encryptCipher.encryptBlock(tmp, pad);
+            for (int i = 0; i < BLOCK_SIZE; i++) pad[i] ^= delta[i];
+            out.put(outPos, pad, 0, BLOCK_SIZE);
             rem -= BLOCK_SIZE;
             pos += BLOCK_SIZE;
             outPos += BLOCK_SIZE;
@@ -140,42 +223,78 @@ public class MumbleOCB2 {
         // final partial
         s2(delta);
         // build pad
-        Arrays.fill(tmp, (byte) 0);
-        ByteBuffer.wrap(tmp).order(ByteOrder.BIG_ENDIAN)
-                .putInt(BLOCK_SIZE - Integer.BYTES, rem * 8);
+        lengthBlock(tmp, rem * 8);
         for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] ^= delta[i];
-        aesEnc(tmp, pad);
+        encryptCipher.encryptBlock(tmp, pad);
 
         // ─── checksum sees raw plaintext (and pad tail) ───
-        byte[] tmpBlk = new byte[BLOCK_SIZE];
-        if (rem >= 0) System.arraycopy(plain, pos, tmpBlk, 0, rem);
-        if (BLOCK_SIZE - rem >= 0) System.arraycopy(pad, rem, tmpBlk, rem, BLOCK_SIZE - rem);
-        for (int i = 0; i < BLOCK_SIZE; i++) checksum[i] ^= tmpBlk[i];
+        plain.get(pos, tmp, 0, rem);
+        for (int i = 0; i < rem; i++) checksum[i] ^= tmp[i];
+        for (int i = rem; i < BLOCK_SIZE; i++) checksum[i] ^= pad[i];
 
         // produce ciphertext bytes
-        for (int i = 0; i < rem; i++) {
-            out[outPos + i] = (byte) (plain[pos + i] ^ pad[i]);
-        }
+        for (int i = 0; i < rem; i++) tmp[i] ^= pad[i];
+        out.put(outPos, tmp, 0, rem);
 
         // final tag: AES-ENC( Δ⋆3 ⊕ checksum )
         s3(delta);
         for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] = (byte) (delta[i] ^ checksum[i]);
-        aesEnc(tmp, tag);
-
+        encryptCipher.encryptBlock(tmp, pad);
     }
 
     public byte[] decrypt(byte[] packet) throws DecryptException {
-        byte[] saveIV = Arrays.copyOf(decryptIV, BLOCK_SIZE);
-        int lateCount = 0;
-        int lostCount = 0;
-        boolean restore = false;
+        if (packet == null || packet.length < HEADER_SIZE) {
+            throw new DecryptException("Packet is null or too short to decrypt");
+        }
 
-        if (packet == null || packet.length < 4) {
-            System.arraycopy(saveIV, 0, decryptIV, 0, BLOCK_SIZE);
+        byte[] plain = new byte[packet.length - HEADER_SIZE];
+        decrypt(ByteBuffer.wrap(packet), 0, packet.length, ByteBuffer.wrap(plain), 0);
+        return plain;
+    }
+
+    /**
+     * Verify and decrypt a packet of length bytes from src starting at srcOffset, writing the plaintext into dst
+     * starting at dstOffset. Both buffers may be heap or direct, offsets are absolute and neither buffer's position
+     * or limit is modified. The source and destination regions must not overlap.
+     *
+     * @param src       Buffer holding the encrypted packet
+     * @param srcOffset Absolute index of the first packet byte
+     * @param length    Packet length, including the {@link #HEADER_SIZE} byte header
+     * @param dst       Destination buffer, needs room for length - {@link #HEADER_SIZE} bytes before its limit.
+     *                  If the packet fails authentication, the range is zeroed before the exception is thrown
+     * @param dstOffset Absolute index the plaintext is written to
+     * @return Number of plaintext bytes written to dst
+     * @throws DecryptException If the packet is too short, replayed or fails authentication
+     */
+    public int decrypt(ByteBuffer src, int srcOffset, int length, ByteBuffer dst, int dstOffset)
+            throws DecryptException {
+        if (length < HEADER_SIZE) {
             throw new DecryptException("Packet is null or too short to decrypt");
         }
+        int plainLength = length - HEADER_SIZE;
+        if (dst.limit() - dstOffset < plainLength) {
+            throw new IllegalArgumentException("Destination buffer too small: need " + plainLength + " bytes");
+        }
 
-        int iv = packet[0] & 0xFF;
+        synchronized (decryptIV) {
+            decryptPacket(src, srcOffset, length, dst, dstOffset);
+        }
+        return plainLength;
+    }
+
+    /**
+     * Verify and decrypt a packet into out, updating the good/late/lost/resync statistics.
+     * Caller must hold the decryptIV lock.
+     */
+    private void decryptPacket(ByteBuffer packet, int offset, int length, ByteBuffer out, int outOffset)
+            throws DecryptException {
+        byte[] saveIV = decSaveIV;
+        System.arraycopy(decryptIV, 0, saveIV, 0, BLOCK_SIZE);
+        int lateCount = 0;
+        int lostCount = 0;
+        boolean restore = false;
+
+        int iv = packet.get(offset) & 0xFF;
         int cur = decryptIV[0] & 0xFF;
 
         // normalize into –128..127
@@ -224,7 +343,7 @@ public class MumbleOCB2 {
         }
 
         int idx = decryptIV[0] & 0xFF;
-        short fullVal = ByteBuffer.wrap(decryptIV, 1, 2).order(ByteOrder.BIG_ENDIAN).getShort();
+        short fullVal = (short) (((decryptIV[1] & 0xFF) << 8) | (decryptIV[2] & 0xFF));
 
         if (decryptHistory[idx] == fullVal) {
             System.arraycopy(saveIV, 0, decryptIV, 0, BLOCK_SIZE);
@@ -233,11 +352,12 @@ public class MumbleOCB2 {
             throw new DecryptException("Replay detected: IV already used at this index");
         }
 
-        byte[] tagBytes = Arrays.copyOfRange(packet, 1, 1 + TAG_TRUNCATED);
-        byte[] cipher = Arrays.copyOfRange(packet, 4, packet.length);
-        byte[] plain = new byte[cipher.length];
-        if (!ocbDecrypt(cipher, cipher.length, decryptIV, plain, tagBytes)) {
+        if (!ocbDecrypt(packet, offset + HEADER_SIZE, length - HEADER_SIZE, decryptIV, out, outOffset, offset + 1)) {
             System.arraycopy(saveIV, 0, decryptIV, 0, BLOCK_SIZE);
+            // Blocks are written as they're decrypted, don't leave unauthenticated plaintext behind
+            for (int i = outOffset, end = outOffset + length - HEADER_SIZE; i < end; i++) {
+                out.put(i, (byte) 0);
+            }
             throw new DecryptException("OCB decryption failed: authentication tag mismatch or invalid cipher");
         }
 
@@ -256,59 +376,67 @@ public class MumbleOCB2 {
             System.arraycopy(saveIV, 0, decryptIV, 0, BLOCK_SIZE);
             resync++;
         }
-
-        return plain;
     }
 
-    private boolean ocbDecrypt(byte[] cipher, int len,
-                               byte[] nonce, byte[] out, byte[] tag) {
-        byte[] delta = new byte[BLOCK_SIZE];
-        byte[] checksum = new byte[BLOCK_SIZE];
-        byte[] tmp = new byte[BLOCK_SIZE];
-        byte[] pad = new byte[BLOCK_SIZE];
-
-        aesEnc(Arrays.copyOf(nonce, BLOCK_SIZE), delta);
+    /**
+     * OCB2 decrypt using the per-instance decrypt scratch buffers.
+     * Caller must hold the decryptIV lock.
+     */
+    private boolean ocbDecrypt(ByteBuffer cipher, int pos, int len, byte[] nonce,
+                               ByteBuffer out, int outPos, int tagPos) {
+        byte[] delta = decDelta;
+        byte[] checksum = decChecksum;
+        byte[] tmp = decTmp;
+        byte[] pad = decPad;
+
+        decryptCipher.encryptBlock(nonce, delta);
         Arrays.fill(checksum, (byte) 0);
 
-        int pos = 0, outPos = 0, rem = len;
+        int rem = len;
         while (rem > BLOCK_SIZE) {
             s2(delta);
-            for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] = (byte) (delta[i] ^ cipher[pos + i]);
-            aesDec(tmp, tmp);
+            cipher.get(pos, tmp, 0, BLOCK_SIZE);
+            for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] ^= delta[i];
+            decryptCipher.decryptBlock(tmp, pad);
             for (int i = 0; i < BLOCK_SIZE; i++) {
-                out[outPos + i] = (byte) (delta[i] ^ tmp[i]);
-                checksum[i] ^= out[outPos + i];
+                pad[i] ^= delta[i];
+                checksum[i] ^= pad[i];
             }
+            out.put(outPos, pad, 0, BLOCK_SIZE);
             rem -= BLOCK_SIZE;
             pos += BLOCK_SIZE;
             outPos += BLOCK_SIZE;
         }
 
         s2(delta);
-        Arrays.fill(tmp, (byte) 0);
-        ByteBuffer.wrap(tmp).order(ByteOrder.BIG_ENDIAN)
-                .putInt(BLOCK_SIZE - 4, rem * 8);
+        lengthBlock(tmp, rem * 8);
         for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] ^= delta[i];
-        aesEnc(tmp, pad);
+        decryptCipher.encryptBlock(tmp, pad);
 
-        byte[] fullBlk = new byte[BLOCK_SIZE];
-        for (int i = 0; i < rem; i++) fullBlk[i] = (byte) (cipher[pos + i] ^ pad[i]);
-        if (BLOCK_SIZE - rem >= 0) System.arraycopy(pad, rem, fullBlk, rem, BLOCK_SIZE - rem);
-        for (int i = 0; i < BLOCK_SIZE; i++) checksum[i] ^= fullBlk[i];
+        // Reuse tmp for the final plaintext block: decrypted bytes followed by the pad tail
+        cipher.get(pos, tmp, 0, rem);
+        for (int i = 0; i < rem; i++) tmp[i] ^= pad[i];
+        System.arraycopy(pad, rem, tmp, rem, BLOCK_SIZE - rem);
+        for (int i = 0; i < BLOCK_SIZE; i++) checksum[i] ^= tmp[i];
 
-        if (Arrays.equals(
-                Arrays.copyOf(fullBlk, BLOCK_SIZE - 1),
-                Arrays.copyOf(delta, BLOCK_SIZE - 1))) {
+        boolean sameAsDelta = true;
+        for (int i = 0; i < BLOCK_SIZE - 1; i++) {
+            if (tmp[i] != delta[i]) {
+                sameAsDelta = false;
+                break;
+            }
+        }
+        if (sameAsDelta) {
             return false;
         }
 
-        System.arraycopy(fullBlk, 0, out, outPos, rem);
+        out.put(outPos, tmp, 0, rem);
 
         s3(delta);
         for (int i = 0; i < BLOCK_SIZE; i++) tmp[i] = (byte) (delta[i] ^ checksum[i]);
-        aesEnc(tmp, pad);
+        decryptCipher.encryptBlock(tmp, pad);
         for (int i = 0; i < TAG_TRUNCATED; i++) {
-            if (pad[i] != tag[i]) return false;
+            if (pad[i] != cipher.get(tagPos + i)) return false;
         }
         return true;
     }
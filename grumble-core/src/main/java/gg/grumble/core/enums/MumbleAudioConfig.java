@@ -8,7 +8,14 @@ public class MumbleAudioConfig {
 	public static final int SAMPLES_PER_FRAME_TOTAL = SAMPLES_PER_FRAME * CHANNELS;
 	public static final int JITTER_MAX_PLC_FRAMES = 10;
 	public static final int JITTER_PREFILL_FRAMES = 5;
-	public static final int JITTER_PREFILL_TIMEOUT_MS = JITTER_PREFILL_FRAMES * PLAYBACK_DURATION_MS;
 	public static final int JITTER_MAX_TOTAL_FRAMES = JITTER_PREFILL_FRAMES + JITTER_MAX_PLC_FRAMES;
+	/* Bounds for the adaptive playout depth, JITTER_PREFILL_FRAMES is where it starts */
+	public static final int JITTER_MIN_TARGET_FRAMES = 1;
+	public static final int JITTER_MAX_TARGET_FRAMES = JITTER_MAX_TOTAL_FRAMES - 2;
+	/* Frames kept queued in output devices that report their own playback position */
+	public static final int OUTPUT_LATENCY_TARGET_FRAMES = 3;
+	public static final int OUTPUT_MAX_QUEUED_FRAMES = 8;
+	/* Frames before detected speech sent along with it, so onsets aren't clipped */
+	public static final int VAD_PREROLL_FRAMES = 2;
 
 }
@@ -0,0 +1,8 @@
+package gg.grumble.core.enums;
+
+public enum MumbleExecutionMode {
+    /* Platform threads of the client's own, the audio loops at max priority */
+    PLATFORM_THREADS,
+    /* Events and the audio loops, which decode, on virtual threads, for running many headless clients in one process */
+    VIRTUAL_THREADS
+}
@@ -0,0 +1,8 @@
+package gg.grumble.core.enums;
+
+public enum MumbleTransmitMode {
+    /* Transmit while setTransmitting(true), plus the release hold */
+    PUSH_TO_TALK,
+    /* Transmit while speech is detected, plus the release hold */
+    VOICE_ACTIVITY
+}
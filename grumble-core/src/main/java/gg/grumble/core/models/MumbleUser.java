@@ -1,15 +1,20 @@
 package gg.grumble.core.models;
 
+import gg.grumble.core.audio.JitterEstimator;
+import gg.grumble.core.audio.TimeStretcher;
 import gg.grumble.core.client.MumbleClient;
 import gg.grumble.core.enums.MumbleMessageType;
 import gg.grumble.core.opus.OpusDecoder;
+import gg.grumble.core.opus.OpusException;
 
+import gg.grumble.core.utils.PacketRingBuffer;
 import gg.grumble.core.utils.StringUtils;
 import gg.grumble.mumble.MumbleProto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static gg.grumble.core.enums.MumbleAudioConfig.*;
 
@@ -43,15 +48,45 @@ public class MumbleUser {
 
     private final Set<Integer> listeningChannels = new LinkedHashSet<>();
 
-    private final TreeMap<Long, float[]> jitterBuffer = new TreeMap<>();
+    /* Encoded Opus packets by sequence, only decoded once the mixer asks for them */
+    private final PacketRingBuffer jitterBuffer = new PacketRingBuffer(JITTER_BUFFER_CAPACITY);
     private long lastPlayedSequence = -1;
 
+    /* PCM of the last decoded packet, for when it's longer than what the mixer asked for */
+    private float[] decodeBuffer;
+    private int decodeOffset = 0;
+    private int decodeLength = 0;
+    /* 20 ms frames in the last decoded packet, senders number each of them */
+    private int decodedFrames = 1;
+
     private static final byte[] EMPTY_BYTES = new byte[0];
 
-    private long jitterPrefillStartTime = 0;
+    /* Room for a full buffer plus the late frames we still accept, without wrapping onto itself */
+    private static final int JITTER_BUFFER_CAPACITY = 2 * (JITTER_MAX_TOTAL_FRAMES + JITTER_MAX_PLC_FRAMES);
+
+    /* Silence after which a transmission is over, even if we never got its terminator */
+    private static final long TRANSMISSION_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final float LEVEL_SMOOTHING = 1 / 8f;
+    private static final float STATS_SMOOTHING = 1 / 50f;
+
+    /* Playout ticks spent prefilling the current transmission */
+    private int jitterPrefillTicks = 0;
     private boolean jitterReady = false;
     private int plcCount = 0;
 
+    /* Adaptive playout depth, steered by stretching decoded frames */
+    private final JitterEstimator jitterEstimator = new JitterEstimator(PLAYBACK_DURATION_MS,
+            JITTER_MIN_TARGET_FRAMES, JITTER_MAX_TARGET_FRAMES, JITTER_PREFILL_FRAMES);
+    private float[] stretchBuffer;
+    private float bufferLevel = 0;
+    private long lastArrivalNanos = 0;
+
+    /* Playout stats, written under the jitter buffer lock and read from anywhere */
+    private volatile int playoutTargetFrames = JITTER_PREFILL_FRAMES;
+    private volatile float jitterMs = 0;
+    private volatile float lateRate = 0;
+    private volatile float stretchRatio = 1;
+
     private boolean autoGainEnabled = false;
     private float manualGain = 1.0f;
 
@@ -193,42 +228,68 @@ public class MumbleUser {
         return client.getChannel(channelId);
     }
 
-    public void pushPcmAudio(long sequence, float[] decodedPcm, int sampleCount, boolean transmitting) {
-        if (transmitting && !this.transmitting) {
-            synchronized (jitterBuffer) {
+    /**
+     * Queue an encoded Opus packet for playback. Decoding waits until {@link #popPcmAudio} needs the frame,
+     * so packets that turn out late or duplicated never cost a decode.
+     *
+     * @param sequence     Sequence number of the packet
+     * @param packet       Opus packet, empty if the user is transmitting silence
+     * @param transmitting If the user is still transmitting after this packet
+     */
+    public void pushOpusAudio(long sequence, byte[] packet, boolean transmitting) {
+        long now = System.nanoTime();
+        synchronized (jitterBuffer) {
+            // A new transmission, or one that went quiet long enough that its terminator must have been lost
+            boolean wasTransmitting = this.transmitting && now - lastArrivalNanos < TRANSMISSION_TIMEOUT_NANOS;
+            if (transmitting && !wasTransmitting) {
                 jitterBuffer.clear();
                 lastPlayedSequence = sequence - 1;
+                decodeOffset = decodeLength = 0;
+                jitterReady = false;
+                jitterPrefillTicks = 0;
+                jitterEstimator.startTransmission();
             }
-        }
 
-        this.transmitting = transmitting;
+            lastArrivalNanos = now;
+            this.transmitting = transmitting;
 
-        // No audio data, user is transmitting silence
-        if (sampleCount <= 0) return;
+            // No audio data, user is transmitting silence
+            if (packet.length == 0) return;
+
+            jitterEstimator.onArrival(sequence, now);
+            jitterMs = (float) jitterEstimator.getJitterMs();
 
-        // Copy only the needed samples
-        float[] pcm = Arrays.copyOf(decodedPcm, sampleCount);
-        synchronized (jitterBuffer) {
             long age = lastPlayedSequence - sequence;
-            if (age > JITTER_MAX_PLC_FRAMES) {
-                LOG.warn("Dropping frame: {} frames late", age);
+            if (age >= 0) {
+                // Its turn already passed and was concealed, buffer deeper from now on
+                jitterEstimator.onLate(now);
+                lateRate += (1 - lateRate) * STATS_SMOOTHING;
+                if (age > JITTER_MAX_PLC_FRAMES) {
+                    LOG.warn("Dropping frame: {} frames late", age);
+                } else if (LOG.isDebugEnabled()) {
+                    LOG.debug("Dropping frame: {} frames late", age);
+                }
                 return;
             }
+            lateRate -= lateRate * STATS_SMOOTHING;
 
-            if (jitterBuffer.containsKey(sequence)) {
+            if (jitterBuffer.contains(sequence)) {
                 // Drop duplicate
                 LOG.warn("Dropping duplicate frame: {}", sequence);
                 return;
             }
-            jitterBuffer.put(sequence, pcm);
+            if (!jitterBuffer.put(sequence, packet, 0, packet.length)) {
+                LOG.warn("Dropping frame: {} is too far behind {}", sequence, jitterBuffer.last());
+                return;
+            }
 
             while (!jitterBuffer.isEmpty() &&
-                    jitterBuffer.firstKey() <= (lastPlayedSequence - JITTER_MAX_PLC_FRAMES)) {
-                jitterBuffer.pollFirstEntry(); // evict unusable frames
+                    jitterBuffer.first() <= (lastPlayedSequence - JITTER_MAX_PLC_FRAMES)) {
+                jitterBuffer.removeFirst(); // evict unusable frames
             }
 
             if (jitterBuffer.size() > JITTER_MAX_TOTAL_FRAMES) {
-                jitterBuffer.pollFirstEntry(); // prevent runaway growth
+                jitterBuffer.removeFirst(); // prevent runaway growth
             }
         }
     }
@@ -238,46 +299,53 @@ public class MumbleUser {
             int filled = 0;
             long nextSeq = lastPlayedSequence + 1;
 
-            // Initial jitter prefill
-            if (!jitterReady) {
-                if (jitterPrefillStartTime == 0) {
-                    jitterPrefillStartTime = System.currentTimeMillis();
-                }
+            int target = jitterEstimator.getTargetFrames(System.nanoTime());
+            playoutTargetFrames = target;
 
-                int available = 0;
-                long seq = nextSeq;
-                while (jitterBuffer.containsKey(seq++) && available < JITTER_PREFILL_FRAMES) {
-                    available++;
-                }
+            // Prefill each transmission to the depth this user's jitter calls for, or play what we have
+            // once we've waited that many ticks (short transmissions never get that deep)
+            if (!jitterReady) {
+                // Frames buffered from the next one on, packets may hold more than one
+                int available = jitterBuffer.contains(nextSeq) ? (int) (jitterBuffer.last() - nextSeq + 1) : 0;
 
-                if (available >= JITTER_PREFILL_FRAMES ||
-                        (System.currentTimeMillis() - jitterPrefillStartTime) > JITTER_PREFILL_TIMEOUT_MS) {
+                if (available >= target || jitterPrefillTicks++ > target) {
                     jitterReady = true;
+                    bufferLevel = available - 1;
                 } else {
                     Arrays.fill(out, 0, maxSamples, 0f);
                     return 0;
                 }
             }
 
+            // Decoders are confined to the audio thread, the only one that plays users
+            OpusDecoder decoder = client.getSessionDecoder(session);
+
+            // Whatever is left of the previous packet plays first
+            filled += drainDecoded(out, filled, maxSamples);
+
             // Playback from jitter buffer
             while (filled < maxSamples) {
-                float[] frame = jitterBuffer.remove(nextSeq);
-                if (frame == null) break;
-
-                int frameLen = frame.length;
-                int toCopy = Math.min(frameLen, maxSamples - filled);
-                System.arraycopy(frame, 0, out, filled, toCopy);
-                filled += toCopy;
-
-                if (toCopy < frameLen) {
-                    float[] leftover = Arrays.copyOfRange(frame, toCopy, frameLen);
-                    jitterBuffer.put(nextSeq, leftover);
-                    break; // keep same nextSeq on next tick
+                if (jitterBuffer.contains(nextSeq)) {
+                    decodePacket(decoder, nextSeq, false);
+                    jitterBuffer.remove(nextSeq);
+                    // A 40 or 60 ms packet played the frames after it as well
+                    nextSeq += decodedFrames - 1;
+                } else if (jitterBuffer.contains(nextSeq + 1)) {
+                    // Frame is missing, but the one after it may carry it as in-band FEC
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Recovering frame {} from FEC for user {}", nextSeq, name);
+                    }
+                    decodePacket(decoder, nextSeq + 1, true);
+                } else {
+                    break;
                 }
 
                 lastPlayedSequence = nextSeq;
                 nextSeq++;
                 plcCount = 0;
+
+                stretchToTarget(target);
+                filled += drainDecoded(out, filled, maxSamples);
             }
 
             // If we got any real audio, pad the rest with silence and return full buffer
@@ -287,9 +355,8 @@ public class MumbleUser {
             }
 
             // Check for a future frame
-            Map.Entry<Long, float[]> upcoming = jitterBuffer.firstEntry();
-            if (upcoming != null) {
-                long futureSeq = upcoming.getKey();
+            if (!jitterBuffer.isEmpty()) {
+                long futureSeq = jitterBuffer.first();
                 long gap = futureSeq - nextSeq;
                 if (gap > JITTER_MAX_PLC_FRAMES) {
                     if (LOG.isWarnEnabled()) {
@@ -311,11 +378,7 @@ public class MumbleUser {
                     LOG.debug("Generated {} PLC frame", StringUtils.toOrdinal(plcCount));
                 }
 
-                OpusDecoder decoder = client.getSessionDecoder(session);
-                int decoded;
-                synchronized (decoder) {
-                    decoded = decoder.decodeFloat(EMPTY_BYTES, out, SAMPLES_PER_FRAME);
-                }
+                int decoded = decoder.decodeFloat(EMPTY_BYTES, out, SAMPLES_PER_FRAME);
 
                 if (decoded <= 0) {
                     Arrays.fill(out, 0, maxSamples, 0f);
@@ -332,6 +395,111 @@ public class MumbleUser {
         }
     }
 
+    /**
+     * Decode a buffered packet into the decode buffer, replacing whatever was left in it.
+     * A packet that fails to decode is logged and played as silence, so one bad packet can't stall the mixer.
+     */
+    private void decodePacket(OpusDecoder decoder, long sequence, boolean fec) {
+        byte[] packet = jitterBuffer.packet(sequence);
+        int length = jitterBuffer.length(sequence);
+        decodeOffset = decodeLength = 0;
+        decodedFrames = 1;
+        try {
+            // With FEC the lost frame is assumed to be as long as the packet carrying it
+            int frameSize = decoder.getNbSamples(packet, length);
+            decodedFrames = Math.max(1, frameSize / SAMPLES_PER_FRAME);
+            int needed = frameSize * CHANNELS;
+            if (decodeBuffer == null || decodeBuffer.length < needed * 3 / 2) {
+                // Room for TimeStretcher.expand to add up to half a frame
+                decodeBuffer = new float[Math.max(needed, SAMPLES_PER_FRAME_TOTAL) * 3 / 2];
+            }
+            decodeLength = decoder.decodeFloat(packet, length, decodeBuffer, frameSize, fec);
+        } catch (OpusException e) {
+            LOG.warn("Unable to decode frame for user {}: {}", name, e.getMessage());
+        }
+    }
+
+    /**
+     * @return True if this user has buffered audio left to play, or may still get PLC for a lost frame
+     */
+    public boolean hasPendingAudio() {
+        synchronized (jitterBuffer) {
+            return !jitterBuffer.isEmpty()
+                    || decodeOffset < decodeLength
+                    || (transmitting && plcCount < JITTER_MAX_PLC_FRAMES);
+        }
+    }
+
+    /**
+     * Nudge the buffer towards the target depth by shortening or lengthening the frame just decoded,
+     * instead of waiting for it to run dry (PLC) or overflow (dropped frames).
+     *
+     * @param target Target depth in frames, counting the frame being played
+     */
+    private void stretchToTarget(int target) {
+        int length = decodeLength;
+        if (length == 0) return;
+
+        // Frames queued behind this one, smoothed so one early or late packet doesn't cause a stretch
+        int waiting = jitterBuffer.isEmpty() ? 0 : (int) (jitterBuffer.last() - lastPlayedSequence);
+        bufferLevel += (waiting - bufferLevel) * LEVEL_SMOOTHING;
+
+        int stretched = length;
+        if (waiting >= target && bufferLevel > target - 0.5f) {
+            stretched = TimeStretcher.compress(decodeBuffer, length, CHANNELS, SAMPLE_RATE);
+        } else if (waiting + 2 <= target && bufferLevel < target - 1.5f) {
+            if (stretchBuffer == null || stretchBuffer.length < decodeBuffer.length) {
+                stretchBuffer = new float[decodeBuffer.length];
+            }
+            int expanded = TimeStretcher.expand(decodeBuffer, length, stretchBuffer, CHANNELS, SAMPLE_RATE);
+            if (expanded > 0) {
+                float[] swap = decodeBuffer;
+                decodeBuffer = stretchBuffer;
+                stretchBuffer = swap;
+                stretched = expanded;
+            }
+        }
+
+        decodeLength = stretched;
+        stretchRatio += ((float) stretched / length - stretchRatio) * STATS_SMOOTHING;
+    }
+
+    private int drainDecoded(float[] out, int offset, int maxSamples) {
+        int toCopy = Math.min(decodeLength - decodeOffset, maxSamples - offset);
+        if (toCopy <= 0) return 0;
+        System.arraycopy(decodeBuffer, decodeOffset, out, offset, toCopy);
+        decodeOffset += toCopy;
+        return toCopy;
+    }
+
+    /**
+     * @return Playout buffer depth this user's audio is being steered towards, in milliseconds
+     */
+    public int getPlayoutTargetMs() {
+        return playoutTargetFrames * PLAYBACK_DURATION_MS;
+    }
+
+    /**
+     * @return Estimated inter-arrival jitter of this user's audio, in milliseconds
+     */
+    public float getJitterMs() {
+        return jitterMs;
+    }
+
+    /**
+     * @return Smoothed fraction of this user's packets that arrived too late to be played
+     */
+    public float getLateRate() {
+        return lateRate;
+    }
+
+    /**
+     * @return Smoothed ratio of played to decoded audio, below 1 while draining the buffer and above 1 while filling it
+     */
+    public float getStretchRatio() {
+        return stretchRatio;
+    }
+
     public void moveToChannel(MumbleChannel channel) {
         if (channel == getChannel()) return;
         MumbleProto.UserState.Builder user = MumbleProto.UserState.newBuilder();
@@ -0,0 +1,213 @@
+package gg.grumble.core.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector threads and a timer shared by many connections, so a process running many clients needs threads in
+ * proportion to its cores rather than to its connections.
+ * <p>
+ * Each connection is given one loop, round robin, and all of its I/O runs on that loop's thread, so handlers
+ * must never block. Timer tasks all run on one thread and must be short too, they should only queue work.
+ */
+public final class MumbleEventLoopGroup implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MumbleEventLoopGroup.class);
+
+    /*
+     * Name lookups, handshake crypto and certificate checks, anything that would block a loop or the timer.
+     * A virtual thread each rather than the common pool, which a reconnecting fleet would fill with blocked lookups
+     * and starve the host application's parallel streams. The JDK adds carriers while a lookup blocks.
+     */
+    static final Executor WORKERS = Executors.newThreadPerTaskExecutor(Thread.ofVirtual()
+            .name("mumble-worker-", 0)
+            .factory());
+
+    private final Loop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final ScheduledThreadPoolExecutor timer;
+
+    /**
+     * @param threads Number of selector threads
+     */
+    public MumbleEventLoopGroup(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Need at least one thread: " + threads);
+        }
+        this.loops = new Loop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new Loop("mumble-io-" + i);
+        }
+
+        this.timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "mumble-timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Pings and release timers are cancelled all the time, don't keep them around until they'd have run
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * The group connections use unless given another, a selector thread per two cores. It's created on first use
+     * and lives as long as the process, don't close it.
+     */
+    public static MumbleEventLoopGroup shared() {
+        return Shared.GROUP;
+    }
+
+    public int getThreadCount() {
+        return loops.length;
+    }
+
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long initialDelay, long period, TimeUnit unit) {
+        return timer.scheduleAtFixedRate(task, initialDelay, period, unit);
+    }
+
+    /**
+     * @return The loop for a new connection
+     */
+    Loop next() {
+        return loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)];
+    }
+
+    /**
+     * Stop the loops and the timer. Channels still registered are left open, close them first.
+     */
+    @Override
+    public void close() {
+        for (Loop loop : loops) {
+            loop.close();
+        }
+        timer.shutdownNow();
+    }
+
+    private static final class Shared {
+        private static final MumbleEventLoopGroup GROUP =
+                new MumbleEventLoopGroup(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * What a channel registered with a loop does when it's ready.
+     */
+    interface Handler {
+        /**
+         * Called on the loop thread with the channel's ready ops.
+         */
+        void ready(SelectionKey key) throws IOException;
+
+        /**
+         * Called on the loop thread when ready threw, the key is already cancelled.
+         */
+        void failed(Exception e);
+    }
+
+    /**
+     * One selector and the thread that runs it, along with tasks handed to it from other threads.
+     */
+    static final class Loop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        private Loop(String name) {
+            try {
+                this.selector = Selector.open();
+            } catch (IOException e) {
+                throw new RuntimeException("Unable to open selector", e);
+            }
+            this.thread = new Thread(this, name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        boolean inLoop() {
+            return Thread.currentThread() == thread;
+        }
+
+        /**
+         * Run a task on the loop thread, after the current round of ready keys.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            if (!inLoop()) {
+                // Wakeups coalesce in the selector until it selects again
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Register a channel, on the loop thread.
+         */
+        SelectionKey register(SelectableChannel channel, int ops, Handler handler) throws ClosedChannelException {
+            if (!inLoop()) {
+                throw new IllegalStateException("Register on the loop thread");
+            }
+            return channel.register(selector, ops, handler);
+        }
+
+        /**
+         * Make the selector drop keys of channels closed from other threads, which only happens when it selects.
+         */
+        void wakeup() {
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException | ClosedSelectorException e) {
+                    if (running) {
+                        LOG.error("Selector failed, {} stopped", thread.getName(), e);
+                    }
+                    break;
+                }
+
+                for (SelectionKey key : selector.selectedKeys()) {
+                    Handler handler = (Handler) key.attachment();
+                    try {
+                        if (key.isValid()) {
+                            handler.ready(key);
+                        }
+                    } catch (Exception e) {
+                        key.cancel();
+                        handler.failed(e);
+                    }
+                }
+                selector.selectedKeys().clear();
+
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Exception e) {
+                        LOG.error("Task failed on {}", thread.getName(), e);
+                    }
+                }
+            }
+
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void close() {
+            running = false;
+            selector.wakeup();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package gg.grumble.core.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+
+/**
+ * Splits decrypted TCP data into Mumble frames: a 2 byte type, a 4 byte length and the payload.
+ * <p>
+ * Payloads are handed out as a view of the application buffer, which is only valid during the callback,
+ * so nothing is copied unless the consumer keeps something (protobuf copies the fields it parses).
+ * The view isn't read-only: protobuf can only parse straight from a heap buffer whose array it can see.
+ * The buffer holds two TLS records. It only grows for a frame that doesn't fit, at most to {@link #MAX_FRAME_LENGTH},
+ * and goes back to its base size once that frame is dispatched.
+ */
+final class MumbleFrameDecoder {
+    static final int HEADER_SIZE = 6;
+    /* Far above anything a server sends, even images are capped in the hundreds of KB */
+    static final int MAX_FRAME_LENGTH = 8 * 1024 * 1024;
+
+    /* Room unwrap needs for one record */
+    private final int recordSize;
+    private final ByteBuffer base;
+
+    private ByteBuffer buffer;
+    /* What handlers see, moved over each payload */
+    private ByteBuffer view;
+
+    /**
+     * @param recordSize The SSL session's application buffer size
+     */
+    MumbleFrameDecoder(int recordSize) {
+        this.recordSize = recordSize;
+        this.base = ByteBuffer.allocate(2 * recordSize);
+        this.buffer = base;
+        this.view = base.duplicate();
+    }
+
+    /**
+     * @return Buffer to unwrap into, in write mode. Replaced when it grows or shrinks, so get it before every unwrap.
+     */
+    ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Unwrap overflowed, make room for another record.
+     */
+    void grow() throws IOException {
+        int max = HEADER_SIZE + MAX_FRAME_LENGTH + recordSize;
+        if (buffer.capacity() >= max) {
+            throw new IOException("Application buffer overflow at " + buffer.capacity() + " bytes");
+        }
+        resize((int) Math.min((long) buffer.capacity() * 2, max));
+    }
+
+    /**
+     * Dispatch every complete frame in the buffer and keep the rest for the next unwrap.
+     *
+     * @param handler Called with the type and payload of each frame. The payload must not be retained
+     *                or modified, it's a view of the buffer, reused for the next frame.
+     */
+    void decode(BiConsumer<Integer, ByteBuffer> handler) throws IOException {
+        buffer.flip();
+        int pendingLength = -1;
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int type = buffer.getShort(start) & 0xFFFF;
+            int length = buffer.getInt(start + 2);
+            if (length < 0 || length > MAX_FRAME_LENGTH) {
+                throw new IOException("Frame too long: " + Integer.toUnsignedString(length) + " bytes");
+            }
+            if (buffer.remaining() - HEADER_SIZE < length) {
+                pendingLength = length;
+                break;
+            }
+
+            int end = start + HEADER_SIZE + length;
+            view.limit(end).position(start + HEADER_SIZE);
+            buffer.position(end);
+            handler.accept(type, view);
+        }
+        buffer.compact();
+
+        // What the next unwraps need: the partial frame, and a record on top
+        int needed = (pendingLength >= 0 ? HEADER_SIZE + pendingLength : buffer.position()) + recordSize;
+        if (needed > buffer.capacity()) {
+            resize(needed);
+        } else if (buffer != base && needed <= base.capacity()) {
+            resize(base.capacity());
+        }
+    }
+
+    /**
+     * Drop anything buffered and go back to the base buffer.
+     */
+    void clear() {
+        buffer = base;
+        view = base.duplicate();
+        base.clear();
+    }
+
+    /**
+     * @return Current capacity, for tests
+     */
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    private void resize(int capacity) {
+        ByteBuffer target = capacity <= base.capacity() ? base : ByteBuffer.allocate(capacity);
+        buffer.flip();
+        target.clear();
+        target.put(buffer);
+        buffer = target;
+        view = target.duplicate();
+    }
+}
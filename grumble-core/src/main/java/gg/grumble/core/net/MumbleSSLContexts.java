@@ -0,0 +1,98 @@
+package gg.grumble.core.net;
+
+import javax.net.ssl.*;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.Enumeration;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * SSL contexts for connecting to Mumble servers, built once and shared.
+ * <p>
+ * A context holds the client session cache, so connections made through the same one can resume a previous session
+ * with the server instead of doing a full handshake. Mumble servers are mostly self-signed, so their certificates
+ * aren't checked.
+ */
+public final class MumbleSSLContexts {
+    private static final Map<String, SSLContext> IDENTITIES = new ConcurrentHashMap<>();
+
+    private MumbleSSLContexts() {
+    }
+
+    /**
+     * @return The context for connecting without a client certificate
+     */
+    public static SSLContext anonymous() {
+        return Anonymous.CONTEXT;
+    }
+
+    /**
+     * Get the context presenting the first key entry of a key store, such as one made by PKCS12Generator.
+     * The server knows a user by their certificate's hash, so contexts are cached by it, and clients with the
+     * same certificate share a session cache.
+     */
+    public static SSLContext forIdentity(KeyStore keyStore, char[] password) throws GeneralSecurityException {
+        String identity = identityOf(keyStore);
+        SSLContext context = IDENTITIES.get(identity);
+        if (context != null) {
+            return context;
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, password);
+        context = create(keyManagers.getKeyManagers());
+        SSLContext existing = IDENTITIES.putIfAbsent(identity, context);
+        return existing != null ? existing : context;
+    }
+
+    private static String identityOf(KeyStore keyStore) throws GeneralSecurityException {
+        Enumeration<String> aliases = keyStore.aliases();
+        while (aliases.hasMoreElements()) {
+            String alias = aliases.nextElement();
+            Certificate certificate = keyStore.getCertificate(alias);
+            if (keyStore.isKeyEntry(alias) && certificate != null) {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-1").digest(certificate.getEncoded()));
+            }
+        }
+        throw new KeyStoreException("No private key with a certificate in the key store");
+    }
+
+    private static SSLContext create(KeyManager[] keyManagers) throws GeneralSecurityException {
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagers, new TrustManager[]{new TrustAllManager()}, new SecureRandom());
+        return context;
+    }
+
+    private static final class Anonymous {
+        private static final SSLContext CONTEXT;
+
+        static {
+            try {
+                CONTEXT = create(null);
+            } catch (GeneralSecurityException e) {
+                throw new ExceptionInInitializerError(e);
+            }
+        }
+    }
+
+    private static final class TrustAllManager implements X509TrustManager {
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] certs, String authType) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] certs, String authType) {
+        }
+    }
+}
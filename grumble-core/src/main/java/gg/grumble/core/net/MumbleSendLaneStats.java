@@ -0,0 +1,17 @@
+package gg.grumble.core.net;
+
+/**
+ * A snapshot of one lane of the TCP send queue.
+ *
+ * @param depth         Frames waiting
+ * @param bytes         Bytes waiting
+ * @param sent          Frames taken off the lane to be sent
+ * @param dropped       Frames dropped for newer ones (voice lane)
+ * @param rejected      Frames refused because the lane was full (control lane)
+ * @param lastWaitMs    How long the last frame sent waited
+ * @param averageWaitMs Smoothed wait
+ * @param maxWaitMs     Longest wait since the connection opened
+ */
+public record MumbleSendLaneStats(int depth, long bytes, long sent, long dropped, long rejected,
+                                  float lastWaitMs, float averageWaitMs, float maxWaitMs) {
+}
@@ -0,0 +1,182 @@
+package gg.grumble.core.net;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The TCP send queue, in two lanes.
+ * <p>
+ * Tunneled voice is always taken first. Its lane is short and drops the oldest frame when full, since a late voice
+ * frame costs more in latency than it's worth. Control messages are never dropped: their lane is bounded in bytes,
+ * and refuses new frames when full so the sender can back off. Each batch takes at most
+ * {@link #CONTROL_BATCH_BYTES} of control frames, so voice never waits behind more than that and a frame in progress.
+ * Voice frame buffers come back to a small pool once they're wrapped, so tunneled voice doesn't allocate per frame.
+ */
+final class MumbleSendQueue {
+    /* 200 ms of single frame packets */
+    static final int VOICE_MAX_FRAMES = 10;
+    static final int CONTROL_MAX_BYTES = 4 * 1024 * 1024;
+    /* About one TLS record */
+    static final int CONTROL_BATCH_BYTES = 16 * 1024;
+    /* Room for a frame header and the largest datagram we tunnel */
+    static final int VOICE_FRAME_CAPACITY = MumbleFrameDecoder.HEADER_SIZE + 1024;
+
+    final Lane voice = new Lane(VOICE_MAX_FRAMES, Long.MAX_VALUE, true);
+    final Lane control = new Lane(Integer.MAX_VALUE, CONTROL_MAX_BYTES, false);
+
+    /* Bounded like the voice lane, in steady state only a frame or two is out at a time */
+    private final ByteBuffer[] voicePool = new ByteBuffer[VOICE_MAX_FRAMES];
+    private int voicePoolSize;
+    /* Voice frames at the start of the batch drainTo last filled, loop thread only */
+    int drainedVoice;
+
+    /**
+     * Take the next frames to send: all voice, then control frames up to {@link #CONTROL_BATCH_BYTES}.
+     *
+     * @return Frames put at the start of batch
+     */
+    int drainTo(ByteBuffer[] batch, int max) {
+        int count = 0;
+        ByteBuffer frame;
+        while (count < max && (frame = voice.poll()) != null) {
+            batch[count++] = frame;
+        }
+        drainedVoice = count;
+        int controlBytes = 0;
+        while (count < max && controlBytes < CONTROL_BATCH_BYTES && (frame = control.poll()) != null) {
+            batch[count++] = frame;
+            controlBytes += frame.remaining();
+        }
+        return count;
+    }
+
+    /**
+     * @return A voice frame buffer with position 0 and limit length, from the pool if one is free
+     */
+    synchronized ByteBuffer acquireVoiceFrame(int length) {
+        ByteBuffer frame = null;
+        if (voicePoolSize > 0) {
+            frame = voicePool[--voicePoolSize];
+            voicePool[voicePoolSize] = null;
+        }
+        if (frame == null || frame.capacity() < length) {
+            frame = ByteBuffer.allocate(Math.max(length, VOICE_FRAME_CAPACITY));
+        }
+        return frame.clear().limit(length);
+    }
+
+    /**
+     * Take back a voice frame that's been wrapped, unless the pool is full.
+     */
+    synchronized void releaseVoiceFrame(ByteBuffer frame) {
+        if (voicePoolSize < voicePool.length) {
+            voicePool[voicePoolSize++] = frame;
+        }
+    }
+
+    void clear() {
+        voice.clear();
+        control.clear();
+    }
+
+    /**
+     * A FIFO of frames and the time each was queued, grown as needed up to its bounds.
+     */
+    static final class Lane {
+        /* Weight of the newest wait in the average */
+        private static final double WAIT_SMOOTHING = 1.0 / 16;
+
+        private final int maxFrames;
+        private final long maxBytes;
+        private final boolean dropOldest;
+
+        private ByteBuffer[] frames = new ByteBuffer[16];
+        private long[] queuedAt = new long[16];
+        private int head;
+        private int count;
+        private long bytes;
+
+        private long sent;
+        private long dropped;
+        private long rejected;
+        private long lastWaitNanos;
+        private double averageWaitNanos;
+        private long maxWaitNanos;
+
+        Lane(int maxFrames, long maxBytes, boolean dropOldest) {
+            this.maxFrames = maxFrames;
+            this.maxBytes = maxBytes;
+            this.dropOldest = dropOldest;
+        }
+
+        /**
+         * @return False if the lane is full and doesn't drop, the frame wasn't queued
+         */
+        synchronized boolean offer(ByteBuffer frame) {
+            int length = frame.remaining();
+            if (count == maxFrames || (count > 0 && bytes + length > maxBytes)) {
+                if (!dropOldest) {
+                    rejected++;
+                    return false;
+                }
+                while (count > 0 && (count == maxFrames || bytes + length > maxBytes)) {
+                    removeFirst();
+                    dropped++;
+                }
+            }
+            if (count == frames.length) {
+                grow();
+            }
+            int tail = (head + count) & (frames.length - 1);
+            frames[tail] = frame;
+            queuedAt[tail] = System.nanoTime();
+            count++;
+            bytes += length;
+            return true;
+        }
+
+        synchronized ByteBuffer poll() {
+            if (count == 0) {
+                return null;
+            }
+            long wait = System.nanoTime() - queuedAt[head];
+            lastWaitNanos = wait;
+            averageWaitNanos += (wait - averageWaitNanos) * WAIT_SMOOTHING;
+            maxWaitNanos = Math.max(maxWaitNanos, wait);
+            sent++;
+            return removeFirst();
+        }
+
+        synchronized void clear() {
+            while (count > 0) {
+                removeFirst();
+            }
+        }
+
+        synchronized MumbleSendLaneStats stats() {
+            return new MumbleSendLaneStats(count, bytes, sent, dropped, rejected,
+                    lastWaitNanos / 1e6f, (float) (averageWaitNanos / 1e6), maxWaitNanos / 1e6f);
+        }
+
+        private ByteBuffer removeFirst() {
+            ByteBuffer frame = frames[head];
+            frames[head] = null;
+            head = (head + 1) & (frames.length - 1);
+            count--;
+            bytes -= frame.remaining();
+            return frame;
+        }
+
+        private void grow() {
+            ByteBuffer[] biggerFrames = new ByteBuffer[frames.length * 2];
+            long[] biggerQueuedAt = new long[frames.length * 2];
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) & (frames.length - 1);
+                biggerFrames[i] = frames[index];
+                biggerQueuedAt[i] = queuedAt[index];
+            }
+            frames = biggerFrames;
+            queuedAt = biggerQueuedAt;
+            head = 0;
+        }
+    }
+}
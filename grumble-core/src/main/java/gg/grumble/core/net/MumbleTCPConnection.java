@@ -9,6 +9,7 @@ import java.net.InetSocketAddress;
 import java.nio.*;
 import java.nio.channels.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.*;
 
 public class MumbleTCPConnection implements Closeable {
@@ -16,108 +17,155 @@ public class MumbleTCPConnection implements Closeable {
 
     private static final ByteBuffer EMPTY_BUFFER = ByteBuffer.allocate(0);
 
+    /* Records wrapped ahead and sent with one gathering write */
+    private static final int MAX_RECORDS = 4;
+    /* Queued frames wrapped together, TLS packs as many as fit into each record */
+    private static final int MAX_BATCH = 64;
+
     private final String hostname;
     private final int port;
     private final Consumer<String> onConnected;
-    private final BiConsumer<Integer, byte[]> onFrameReceived;
+    private final BiConsumer<Integer, ByteBuffer> onFrameReceived;
     private final Consumer<String> onDisconnected;
 
-    private final ExecutorService executor;
-    private final BlockingQueue<ByteBuffer> sendQueue = new LinkedBlockingQueue<>();
+    private final MumbleEventLoopGroup.Loop loop;
+    private final MumbleEventLoopGroup.Handler handler = new MumbleEventLoopGroup.Handler() {
+        @Override
+        public void ready(SelectionKey key) throws IOException {
+            onReady(key);
+        }
+
+        @Override
+        public void failed(Exception e) {
+            fail(e);
+        }
+    };
+    private final MumbleSendQueue sendQueue = new MumbleSendQueue();
     private ByteBuffer netOutBuffer;
     private ByteBuffer netInBuffer;
-    private ByteBuffer appInBuffer;
-
-    private SocketChannel channel;
+    private MumbleFrameDecoder frameDecoder;
+
+    /* Send pipeline, loop thread only: frames taken off the queue, and encrypted records not written yet */
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+    private int batchHead;
+    private int batchCount;
+    /* Frames at the start of the batch that are voice, returned to the pool once wrapped */
+    private int batchVoiceCount;
+    private final ByteBuffer[] records = new ByteBuffer[MAX_RECORDS];
+    private int recordHead;
+    private int recordCount;
+    /* Set by send until the loop thread has flushed, so a burst of sends is flushed once */
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private volatile SocketChannel channel;
+    private SelectionKey key;
     private SSLEngine sslEngine;
-    private Selector selector;
     private boolean handshakeComplete = false;
+    /* Delegated tasks are running, the engine is theirs until they hand the handshake back to the loop */
+    private boolean handshakeTasksRunning;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public MumbleTCPConnection(String hostname,
                                int port,
                                Consumer<String> onConnected,
-                               BiConsumer<Integer, byte[]> onFrameReceived,
+                               BiConsumer<Integer, ByteBuffer> onFrameReceived,
                                Consumer<String> onDisconnected) {
+        this(hostname, port, onConnected, onFrameReceived, onDisconnected, MumbleEventLoopGroup.shared());
+    }
+
+    /**
+     * @param onFrameReceived Called on the loop thread with the type and payload of each frame. The payload is a
+     *                        view of the receive buffer, which must not be modified or retained after returning.
+     * @param group           Group whose loop runs this connection's I/O
+     */
+    public MumbleTCPConnection(String hostname,
+                               int port,
+                               Consumer<String> onConnected,
+                               BiConsumer<Integer, ByteBuffer> onFrameReceived,
+                               Consumer<String> onDisconnected,
+                               MumbleEventLoopGroup group) {
         this.hostname = hostname;
         this.port = port;
         this.onConnected = onConnected;
         this.onFrameReceived = onFrameReceived;
         this.onDisconnected = onDisconnected;
-        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "tcp"));
+        this.loop = group.next();
     }
 
     public void connect() {
-        connect(defaultSSLContext());
+        connect(MumbleSSLContexts.anonymous());
     }
 
+    /**
+     * @param sslContext Reuse the same context to resume the session on the next connection to this server
+     */
     public void connect(SSLContext sslContext) {
-        executor.execute(() -> {
-            try {
-                channel = SocketChannel.open();
-                channel.configureBlocking(false);
-                channel.connect(new InetSocketAddress(hostname, port));
-
-                selector = Selector.open();
-                channel.register(selector, SelectionKey.OP_CONNECT);
-
-                sslEngine = sslContext.createSSLEngine(hostname, port);
-                sslEngine.setUseClientMode(true);
-                sslEngine.beginHandshake();
-
-                // ← Resize your buffers right here, before handshake I/O begins
-                SSLSession session = sslEngine.getSession();
-                netInBuffer   = ByteBuffer.allocate(session.getPacketBufferSize());
-                netOutBuffer  = ByteBuffer.allocate(session.getPacketBufferSize());
-                appInBuffer   = ByteBuffer.allocate(session.getApplicationBufferSize());
-
-                runLoop();
-            } catch (Exception e) {
-                LOG.error("Exception during TCP run loop", e);
-                onDisconnected.accept("Connection error: " + e.getMessage());
-                close();
-            }
+        // The lookup may block, so it's done before the loop takes over
+        MumbleEventLoopGroup.WORKERS.execute(() -> {
+            InetSocketAddress address = new InetSocketAddress(hostname, port);
+            loop.execute(() -> open(sslContext, address));
         });
     }
 
+    private void open(SSLContext sslContext, InetSocketAddress address) {
+        if (closed.get()) {
+            return;
+        }
+        try {
+            sslEngine = sslContext.createSSLEngine(hostname, port);
+            sslEngine.setUseClientMode(true);
+            sslEngine.beginHandshake();
+
+            SSLSession session = sslEngine.getSession();
+            netInBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
+            netOutBuffer = ByteBuffer.allocate(session.getPacketBufferSize());
+            frameDecoder = new MumbleFrameDecoder(session.getApplicationBufferSize());
+
+            channel = SocketChannel.open();
+            if (closed.get()) {
+                // Closed while we were opening, and it may not have seen the channel
+                channel.close();
+                return;
+            }
+            channel.configureBlocking(false);
+            key = loop.register(channel, SelectionKey.OP_CONNECT, handler);
+            channel.connect(address);
+        } catch (Exception e) {
+            fail(e);
+        }
+    }
+
     // Handles initial connection completion
     private void handleConnect(SelectionKey key) throws IOException {
         if (channel.finishConnect()) {
-            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            key.interestOps(SelectionKey.OP_READ);
         } else {
             throw new IOException("Failed to finish connection");
         }
     }
 
-    private void runLoop() throws IOException {
-        while (!Thread.currentThread().isInterrupted()) {
-            selector.select();
-
-            if (!selector.isOpen()) break;
-
-            for (SelectionKey key : selector.selectedKeys()) {
-                if (!key.isValid()) continue;
-
-                if (key.isConnectable()) {
-                    handleConnect(key);
-                }
-                if (!handshakeComplete) {
-                    doHandshake(key);
-                } else {
-                    if (key.isWritable()) {
-                        handleWrite(key);
-                    }
-                    if (key.isReadable()) {
-                        handleRead();
-                    }
-                }
+    private void onReady(SelectionKey key) throws IOException {
+        if (key.isConnectable()) {
+            handleConnect(key);
+        }
+        if (!handshakeComplete) {
+            if (!handshakeTasksRunning) {
+                doHandshake(key);
+            }
+        } else {
+            if (key.isWritable()) {
+                flush(key);
+            }
+            if (key.isReadable()) {
+                handleRead();
             }
-            selector.selectedKeys().clear();
         }
-
-        LOG.info("TCP listener thread exited");
-        onDisconnected.accept("Disconnected");
     }
 
+    /**
+     * Move the handshake on as far as it goes without waiting: for more data from the server, which comes with
+     * OP_READ, or for delegated tasks, which hand it back to the loop when they're done.
+     */
     private void doHandshake(SelectionKey key) throws IOException {
         SSLEngineResult.HandshakeStatus status = sslEngine.getHandshakeStatus();
         while (!handshakeComplete) {
@@ -126,11 +174,14 @@ public class MumbleTCPConnection implements Closeable {
                     int read = channel.read(netInBuffer);
                     if (read == -1) throw new EOFException("Connection closed during handshake");
                     netInBuffer.flip();
-                    SSLEngineResult result = sslEngine.unwrap(netInBuffer, appInBuffer);
+                    SSLEngineResult result = sslEngine.unwrap(netInBuffer, frameDecoder.buffer());
                     netInBuffer.compact();
                     status = result.getHandshakeStatus();
                     switch (result.getStatus()) {
-                        case OK, BUFFER_UNDERFLOW -> {}
+                        case OK -> {}
+                        case BUFFER_UNDERFLOW -> {
+                            return;
+                        }
                         case CLOSED -> {
                             close();
                             return;
@@ -148,22 +199,43 @@ public class MumbleTCPConnection implements Closeable {
                     status = result.getHandshakeStatus();
                 }
                 case NEED_TASK -> {
-                    Runnable task;
-                    while ((task = sslEngine.getDelegatedTask()) != null) {
-                        task.run();
-                    }
-                    status = sslEngine.getHandshakeStatus();
+                    handshakeTasksRunning = true;
+                    key.interestOps(0);
+                    MumbleEventLoopGroup.WORKERS.execute(() -> {
+                        Runnable task;
+                        while ((task = sslEngine.getDelegatedTask()) != null) {
+                            task.run();
+                        }
+                        loop.execute(this::resumeHandshake);
+                    });
+                    return;
                 }
                 case FINISHED, NOT_HANDSHAKING -> {
                     handshakeComplete = true;
+                    LOG.debug("TLS handshake with {}:{} done, {}", hostname, port, sslEngine.getSession().getProtocol());
                     key.interestOps(SelectionKey.OP_READ);
                     onConnected.accept(hostname);
+                    // Anything sent while we were handshaking
+                    flush(key);
                     return;
                 }
             }
         }
     }
 
+    private void resumeHandshake() {
+        handshakeTasksRunning = false;
+        if (closed.get()) {
+            return;
+        }
+        try {
+            key.interestOps(SelectionKey.OP_READ);
+            doHandshake(key);
+        } catch (IOException | CancelledKeyException e) {
+            fail(e);
+        }
+    }
+
     private void handleRead() throws IOException {
         int bytesRead = channel.read(netInBuffer);
         if (bytesRead == -1) {
@@ -174,23 +246,10 @@ public class MumbleTCPConnection implements Closeable {
         netInBuffer.flip();
 
         while (true) {
-            SSLEngineResult result = sslEngine.unwrap(netInBuffer, appInBuffer);
+            SSLEngineResult result = sslEngine.unwrap(netInBuffer, frameDecoder.buffer());
             switch (result.getStatus()) {
                 case OK -> {
-                    appInBuffer.flip();
-                    while (appInBuffer.remaining() >= 6) {
-                        appInBuffer.mark();
-                        int type = appInBuffer.getShort() & 0xFFFF;
-                        int length = appInBuffer.getInt();
-                        if (appInBuffer.remaining() < length) {
-                            appInBuffer.reset();
-                            break;
-                        }
-                        byte[] payload = new byte[length];
-                        appInBuffer.get(payload);
-                        onFrameReceived.accept(type, payload);
-                    }
-                    appInBuffer.compact();
+                    frameDecoder.decode(onFrameReceived);
                     if (netInBuffer.hasRemaining()) {
                         continue;
                     } else {
@@ -202,13 +261,7 @@ public class MumbleTCPConnection implements Closeable {
                     netInBuffer.compact();
                     return;
                 }
-                case BUFFER_OVERFLOW -> {
-                    // application buffer too small → grow it
-                    ByteBuffer bigger = ByteBuffer.allocate(appInBuffer.capacity() * 2);
-                    appInBuffer.flip();
-                    bigger.put(appInBuffer);
-                    appInBuffer = bigger;
-                }
+                case BUFFER_OVERFLOW -> frameDecoder.grow();
                 case CLOSED -> {
                     close();
                     return;
@@ -218,81 +271,167 @@ public class MumbleTCPConnection implements Closeable {
         }
     }
 
-    private void handleWrite(SelectionKey key) throws IOException {
-        ByteBuffer plain;
-        while ((plain = sendQueue.poll()) != null) {
-            netOutBuffer.clear();
-            SSLEngineResult result = sslEngine.wrap(plain, netOutBuffer);
-            switch (result.getStatus()) {
-                case OK -> {
-                    netOutBuffer.flip();
-                    while (netOutBuffer.hasRemaining()) {
-                        channel.write(netOutBuffer);
-                    }
+    /**
+     * Write what's pending, then wrap and write queued frames until the queue is empty or the socket is full.
+     * A full socket keeps the rest for when OP_WRITE says it drained, instead of spinning on it.
+     */
+    private void flush(SelectionKey key) throws IOException {
+        while (true) {
+            if (recordCount > 0) {
+                channel.write(records, recordHead, recordCount);
+                while (recordCount > 0 && !records[recordHead].hasRemaining()) {
+                    recordHead++;
+                    recordCount--;
                 }
-                case BUFFER_OVERFLOW -> throw new IOException("SSL wrap buffer overflow");
-                case CLOSED -> {
-                    close();
+                if (recordCount > 0) {
+                    setWriteInterest(key, true);
                     return;
                 }
+            }
+            if (!wrapRecords()) {
+                setWriteInterest(key, false);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Wrap queued frames into up to {@link #MAX_RECORDS} records.
+     *
+     * @return Whether there's anything to write
+     */
+    private boolean wrapRecords() throws IOException {
+        recordHead = 0;
+        while (recordCount < MAX_RECORDS) {
+            if (batchHead == batchCount) {
+                batchHead = 0;
+                batchCount = sendQueue.drainTo(batch, MAX_BATCH);
+                batchVoiceCount = sendQueue.drainedVoice;
+                if (batchCount == 0) {
+                    break;
+                }
+            }
+
+            ByteBuffer record = records[recordCount];
+            if (record == null) {
+                record = records[recordCount] = ByteBuffer.allocateDirect(sslEngine.getSession().getPacketBufferSize());
+            }
+            record.clear();
+            SSLEngineResult result = sslEngine.wrap(batch, batchHead, batchCount - batchHead, record);
+            switch (result.getStatus()) {
+                case OK -> {}
+                case BUFFER_OVERFLOW -> throw new IOException("SSL wrap buffer overflow");
+                case CLOSED -> throw new EOFException("SSL engine closed while sending");
                 default -> throw new IOException("SSL wrap error: " + result.getStatus());
             }
+            record.flip();
+            if (record.hasRemaining()) {
+                recordCount++;
+            }
+            while (batchHead < batchCount && !batch[batchHead].hasRemaining()) {
+                if (batchHead < batchVoiceCount) {
+                    sendQueue.releaseVoiceFrame(batch[batchHead]);
+                }
+                batch[batchHead++] = null;
+            }
         }
-        key.interestOps(SelectionKey.OP_READ); // Done writing
+        return recordCount > 0;
     }
 
-    public void send(ByteBuffer buffer) {
-        if (!sendQueue.offer(buffer)) {
-            LOG.warn("Send queue full, dropping message");
-            return;
+    private static void setWriteInterest(SelectionKey key, boolean enabled) {
+        int ops = key.interestOps();
+        int wanted = enabled ? ops | SelectionKey.OP_WRITE : ops & ~SelectionKey.OP_WRITE;
+        if (ops != wanted) {
+            key.interestOps(wanted);
         }
-        SelectionKey key = channel.keyFor(selector);
-        if (key != null && key.isValid()) {
-            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
-            wakeupSelector();
+    }
+
+    /**
+     * Queue a control frame. It's sent by the TCP thread, packed into TLS records with whatever else is queued,
+     * after any queued voice.
+     *
+     * @return False if the control lane is full and the frame wasn't queued, the caller should back off
+     */
+    public boolean send(ByteBuffer buffer) {
+        if (!sendQueue.control.offer(buffer)) {
+            return false;
         }
+        requestFlush();
+        return true;
     }
 
-    public void close() {
+    /**
+     * A buffer to build a voice frame in for {@link #sendVoice}, reused once the frame is sent.
+     *
+     * @return Buffer with position 0 and limit length
+     */
+    public ByteBuffer allocateVoiceFrame(int length) {
+        return sendQueue.acquireVoiceFrame(length);
+    }
+
+    /**
+     * Queue a tunneled voice frame, sent ahead of control frames. If too much voice is queued the oldest is dropped.
+     * The buffer belongs to the connection from now on, it goes back to {@link #allocateVoiceFrame} once sent.
+     */
+    public void sendVoice(ByteBuffer buffer) {
+        sendQueue.voice.offer(buffer);
+        requestFlush();
+    }
+
+    private void requestFlush() {
+        if (flushRequested.compareAndSet(false, true)) {
+            loop.execute(this::flushRequested);
+        }
+    }
+
+    private void flushRequested() {
+        flushRequested.set(false);
+        // Before the handshake is done, it flushes once it is
+        if (!handshakeComplete || closed.get()) {
+            return;
+        }
         try {
-            if (channel != null && channel.isOpen()) channel.close();
-            if (selector != null && selector.isOpen()) selector.close();
-        } catch (IOException ignored) {}
+            flush(key);
+        } catch (IOException | CancelledKeyException e) {
+            fail(e);
+        }
+    }
 
-        wakeupSelector();
-        executor.shutdownNow();
-        executor.close();
+    public MumbleSendLaneStats getVoiceStats() {
+        return sendQueue.voice.stats();
+    }
 
-        handshakeComplete = false;
-        netInBuffer.clear();
-        netOutBuffer.clear();
-        appInBuffer.clear();
-        LOG.info("TCP connection closed");
+    public MumbleSendLaneStats getControlStats() {
+        return sendQueue.control.stats();
     }
 
-    private void wakeupSelector() {
-        if (selector != null && selector.isOpen()) {
-            selector.wakeup();
+    public void close() {
+        disconnect("Disconnected");
+    }
+
+    private void fail(Exception e) {
+        if (closed.get()) {
+            return;
         }
+        LOG.error("TCP connection error", e);
+        disconnect("Connection error: " + e.getMessage());
     }
 
-    private SSLContext defaultSSLContext() {
+    /**
+     * Close the channel and report why, once. The loop forgets the channel the next time it selects.
+     */
+    private void disconnect(String reason) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
         try {
-            TrustManager[] trustAllCerts = new TrustManager[]{
-                    new X509TrustManager() {
-                        public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                            return new java.security.cert.X509Certificate[0];
-                        }
-                        public void checkClientTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                        public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) {}
-                    }
-            };
+            SocketChannel channel = this.channel;
+            if (channel != null) channel.close();
+        } catch (IOException ignored) {}
+        loop.wakeup();
+        sendQueue.clear();
 
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, trustAllCerts, new java.security.SecureRandom());
-            return sslContext;
-        } catch (Exception e) {
-            throw new RuntimeException("Could not create default SSL context", e);
-        }
+        LOG.info("TCP connection closed");
+        onDisconnected.accept(reason);
     }
 }
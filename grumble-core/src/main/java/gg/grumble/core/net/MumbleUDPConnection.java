@@ -6,14 +6,10 @@ import org.slf4j.LoggerFactory;
 import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketAddress;
+import java.net.PortUnreachableException;
 import java.net.StandardSocketOptions;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
-import java.util.Iterator;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 public class MumbleUDPConnection implements Closeable {
@@ -21,20 +17,46 @@ public class MumbleUDPConnection implements Closeable {
 
     private static final int MAX_UDP_BUFFER_SIZE = 1024;
 
+    /* How many queued datagrams are drained per selector wakeup before they're dispatched */
+    private static final int RECEIVE_BATCH_SIZE = 32;
+
     private final DatagramChannel channel;
-    private final Selector selector;
-    private final Consumer<byte[]> onReceive;
-    private final ExecutorService executor;
+    private final Consumer<ByteBuffer> onReceive;
+    private final MumbleEventLoopGroup.Loop loop;
+
+    /* Pooled direct receive buffers, reused for every batch by the loop thread */
+    private final ByteBuffer[] receiveRing = new ByteBuffer[RECEIVE_BATCH_SIZE];
 
     private final String hostname;
     private final int port;
 
+    /* Set on the loop once connect() or resolve() has looked it up, null until then */
+    private volatile InetSocketAddress serverAddress;
+    /* Registered with the loop, loop thread only */
+    private boolean started = false;
+
     private volatile boolean running = true;
 
-    public MumbleUDPConnection(String hostname, int port, Consumer<byte[]> onReceive) {
+    public MumbleUDPConnection(String hostname, int port, Consumer<ByteBuffer> onReceive) {
+        this(hostname, port, onReceive, MumbleEventLoopGroup.shared());
+    }
+
+    /**
+     * @param hostname  Server hostname
+     * @param port      Server port
+     * @param onReceive Called on the loop thread with each received datagram, between position and limit.
+     *                  The buffer is pooled and reused once the callback returns, so it must not be retained.
+     * @param group     Group whose loop receives for this connection
+     */
+    public MumbleUDPConnection(String hostname, int port, Consumer<ByteBuffer> onReceive, MumbleEventLoopGroup group) {
         this.hostname = hostname;
         this.port = port;
         this.onReceive = onReceive;
+        this.loop = group.next();
+
+        for (int i = 0; i < receiveRing.length; i++) {
+            receiveRing[i] = ByteBuffer.allocateDirect(MAX_UDP_BUFFER_SIZE);
+        }
 
         try {
             this.channel = DatagramChannel.open();
@@ -42,103 +64,159 @@ public class MumbleUDPConnection implements Closeable {
             this.channel.setOption(StandardSocketOptions.SO_RCVBUF, 512 * 1024);
             this.channel.bind(new InetSocketAddress(0));
 
-            this.selector = Selector.open();
-            this.channel.register(selector, SelectionKey.OP_READ);
-
             // Set DSCP EF (0xB8 = DSCP 46 << 2)
             this.channel.socket().setTrafficClass(0xB8);
         } catch (IOException e) {
             throw new RuntimeException("Unable to initialize UDP connection", e);
         }
-
-        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "udp"));
     }
 
+    /**
+     * Resolve the server address, connect the channel to it and start receiving, without blocking the caller.
+     * Calling it again (e.g. on a crypt resync) only re-resolves the address.
+     */
     public void connect() {
-        executor.submit(this::run);
+        resolve();
     }
 
-    public void send(byte[] data) throws IOException {
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        InetSocketAddress target = new InetSocketAddress(hostname, port);
-        while (buffer.hasRemaining()) {
-            channel.send(buffer, target);
-        }
+    /**
+     * Resolve the server hostname and connect the channel to it, if the address changed.
+     * A connected channel lets the kernel drop datagrams from anyone else, and keeps name lookups off the send path.
+     * The lookup runs on a worker and the loop connects the channel, so a slow DNS server never holds up the
+     * caller, which may be a loop or the timer shared with other clients.
+     * Call again after a reconnect or when the server stops answering, to pick up a server that moved.
+     */
+    public void resolve() {
+        MumbleEventLoopGroup.WORKERS.execute(() -> {
+            InetSocketAddress address = new InetSocketAddress(hostname, port);
+            if (address.isUnresolved()) {
+                LOG.warn("Unable to resolve UDP server address {}:{}", hostname, port);
+                return;
+            }
+            loop.execute(() -> connectTo(address));
+        });
     }
 
-    private void run() {
-        ByteBuffer buffer = ByteBuffer.allocate(MAX_UDP_BUFFER_SIZE);
-
+    private void connectTo(InetSocketAddress address) {
+        if (!running) {
+            return;
+        }
         try {
-            while (running) {
-                int readyChannels = selector.select(2000); // 2s timeout to avoid hangs
-
-                if (!running) break;
-
-                if (readyChannels == 0) {
-                    continue;
+            if (!address.equals(serverAddress) || !channel.isConnected()) {
+                if (channel.isConnected()) {
+                    channel.disconnect();
                 }
+                channel.connect(address);
+                serverAddress = address;
+                LOG.info("UDP channel connected to {}", address);
+            }
+        } catch (IOException e) {
+            LOG.error("Unable to connect UDP channel to {}", address, e);
+            return;
+        }
+        if (!started) {
+            started = true;
+            register();
+        }
+    }
 
-                Set<SelectionKey> keys = selector.selectedKeys();
-                Iterator<SelectionKey> it = keys.iterator();
+    public InetSocketAddress getServerAddress() {
+        return serverAddress;
+    }
 
-                while (it.hasNext()) {
-                    SelectionKey key = it.next();
-                    it.remove();
+    public void send(byte[] data) throws IOException {
+        send(ByteBuffer.wrap(data));
+    }
 
+    /**
+     * Send the remaining bytes of the buffer as a single datagram.
+     * Direct buffers are handed to the channel without an intermediate copy.
+     *
+     * @param buffer Datagram contents, consumed from position to limit
+     */
+    public void send(ByteBuffer buffer) throws IOException {
+        if (serverAddress == null) {
+            throw new IOException("UDP channel is not connected");
+        }
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private void register() {
+        if (!running) {
+            return;
+        }
+        try {
+            loop.register(channel, SelectionKey.OP_READ, new MumbleEventLoopGroup.Handler() {
+                @Override
+                public void ready(SelectionKey key) throws IOException {
                     if (LOG.isTraceEnabled()) {
                         LOG.trace("SelectionKey: valid={}, readable={}", key.isValid(), key.isReadable());
                     }
-
-                    if (!key.isValid()) {
-                        LOG.warn("SelectionKey invalid, re-registering channel");
-                        key.cancel();
-                        channel.register(selector, SelectionKey.OP_READ);
-                        continue;
+                    if (key.isReadable()) {
+                        receiveBatch();
                     }
+                }
 
-                    if (key.isReadable()) {
-                        buffer.clear();
-                        SocketAddress from = channel.receive(buffer);
-
-                        if (from != null && onReceive != null) {
-                            buffer.flip();
-                            byte[] data = new byte[buffer.remaining()];
-                            buffer.get(data);
-
-                            try {
-                                onReceive.accept(data);
-                            } catch (Exception ex) {
-                                LOG.error("Error in UDP receive callback", ex);
-                            }
-                        }
+                @Override
+                public void failed(Exception e) {
+                    if (running) {
+                        LOG.error("UDP receive error", e);
                     }
                 }
+            });
+        } catch (ClosedChannelException e) {
+            LOG.debug("UDP channel closed before it was registered");
+        }
+    }
 
-                if (LOG.isTraceEnabled()) {
-                    LOG.trace("DatagramChannel open: {}", channel.isOpen());
+    /**
+     * Drain everything the socket has queued into the receive ring, then dispatch the batch.
+     * Draining first keeps the socket buffer short during bursts, and the ring slots are free
+     * again as soon as dispatch returns.
+     */
+    private void receiveBatch() throws IOException {
+        while (true) {
+            int received = 0;
+            while (received < receiveRing.length) {
+                ByteBuffer buffer = receiveRing[received];
+                buffer.clear();
+                try {
+                    // Connected, so only datagrams from the server are queued, and an empty read means drained
+                    if (channel.read(buffer) <= 0) break;
+                } catch (PortUnreachableException e) {
+                    // ICMP from the server side, our pings will notice if it keeps happening
+                    LOG.debug("UDP port unreachable: {}", serverAddress);
+                    break;
                 }
+                buffer.flip();
+                received++;
             }
-        } catch (IOException e) {
-            if (running) {
-                LOG.error("UDP receive error", e);
+
+            if (onReceive != null) {
+                for (int i = 0; i < received; i++) {
+                    try {
+                        onReceive.accept(receiveRing[i]);
+                    } catch (Exception ex) {
+                        LOG.error("Error in UDP receive callback", ex);
+                    }
+                }
             }
-        }
 
-        LOG.info("UDP listener thread exited");
+            // A partially filled ring means the socket is empty
+            if (received < receiveRing.length) return;
+        }
     }
 
     @Override
     public void close() {
         running = false;
-        selector.wakeup();
-        executor.shutdownNow();
-        executor.close();
         try {
-            selector.close();
             channel.close();
         } catch (IOException ignored) {
         }
+        loop.wakeup();
         LOG.info("UDP connection closed");
     }
 }
@@ -0,0 +1,287 @@
+package gg.grumble.core.opus;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.FunctionDescriptor;
+import java.lang.foreign.Linker;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SymbolLookup;
+import java.lang.invoke.MethodHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static gg.grumble.core.opus.OpusDecoder.MAX_FRAME_SIZE;
+import static gg.grumble.core.opus.OpusDecoder.MAX_PACKET_SIZE;
+import static java.lang.foreign.ValueLayout.*;
+
+/**
+ * libopus through downcall handles of the foreign function API, without JNA's proxy and argument marshalling.
+ * Each codec allocates its packet and PCM segments from its own arena, which destroy closes.
+ * <p>
+ * The API is a preview in Java 21, so this class only loads with {@code --enable-preview} and is only
+ * reached by name through {@link OpusBackends}. It binds to the libopus that {@code OpusLibrary} already loaded.
+ */
+final class FfmOpusBackend implements OpusBackend {
+    private static final int OPUS_OK = 0;
+
+    private final MethodHandle decoderCreate;
+    private final MethodHandle decoderDestroy;
+    private final MethodHandle decode;
+    private final MethodHandle decodeFloat;
+    private final MethodHandle decoderGetNbSamples;
+    private final MethodHandle encoderCreate;
+    private final MethodHandle encoderDestroy;
+    private final MethodHandle encode;
+    private final MethodHandle encoderCtl;
+    private final MethodHandle strerror;
+
+    FfmOpusBackend() {
+        Linker linker = Linker.nativeLinker();
+        // Libraries System.load'ed by this class loader, which is how OpusLibrary loads the bundled libopus
+        SymbolLookup lookup = SymbolLookup.loaderLookup();
+        if (lookup.find("opus_decoder_create").isEmpty()) {
+            throw new UnsupportedOperationException("libopus isn't loaded, call OpusLibrary.loadFromJar() first");
+        }
+
+        decoderCreate = downcall(linker, lookup, "opus_decoder_create",
+                FunctionDescriptor.of(ADDRESS, JAVA_INT, JAVA_INT, ADDRESS));
+        decoderDestroy = downcall(linker, lookup, "opus_decoder_destroy",
+                FunctionDescriptor.ofVoid(ADDRESS));
+        decode = downcall(linker, lookup, "opus_decode",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+        decodeFloat = downcall(linker, lookup, "opus_decode_float",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT));
+        // Only parses the TOC byte, short enough to skip the thread state transitions
+        decoderGetNbSamples = downcall(linker, lookup, "opus_decoder_get_nb_samples",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT), Linker.Option.isTrivial());
+        encoderCreate = downcall(linker, lookup, "opus_encoder_create",
+                FunctionDescriptor.of(ADDRESS, JAVA_INT, JAVA_INT, JAVA_INT, ADDRESS));
+        encoderDestroy = downcall(linker, lookup, "opus_encoder_destroy",
+                FunctionDescriptor.ofVoid(ADDRESS));
+        encode = downcall(linker, lookup, "opus_encode",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, ADDRESS, JAVA_INT, ADDRESS, JAVA_INT));
+        // Variadic, the requests we make all pass one int
+        encoderCtl = downcall(linker, lookup, "opus_encoder_ctl",
+                FunctionDescriptor.of(JAVA_INT, ADDRESS, JAVA_INT, JAVA_INT), Linker.Option.firstVariadicArg(2));
+        strerror = downcall(linker, lookup, "opus_strerror",
+                FunctionDescriptor.of(ADDRESS, JAVA_INT));
+    }
+
+    private static MethodHandle downcall(Linker linker, SymbolLookup lookup, String name,
+                                         FunctionDescriptor descriptor, Linker.Option... options) {
+        MemorySegment symbol = lookup.find(name)
+                .orElseThrow(() -> new UnsupportedOperationException("libopus has no " + name));
+        return linker.downcallHandle(symbol, descriptor, options);
+    }
+
+    @Override
+    public String name() {
+        return "ffm";
+    }
+
+    @Override
+    public OpusBackend.Decoder createDecoder(int sampleRate, int channels) {
+        return new Decoder(sampleRate, channels);
+    }
+
+    @Override
+    public OpusBackend.Encoder createEncoder(int sampleRate, int channels, int application) {
+        return new Encoder(sampleRate, channels, application);
+    }
+
+    @Override
+    public String strerror(int error) {
+        try {
+            MemorySegment message = (MemorySegment) strerror.invokeExact(error);
+            // A static string, of a length we don't know up front
+            return message.reinterpret(Long.MAX_VALUE).getUtf8String(0);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    /**
+     * Downcalls only throw if the handle is used wrong, which is a bug here.
+     */
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException e) {
+            return e;
+        }
+        if (t instanceof Error e) {
+            throw e;
+        }
+        return new IllegalStateException(t);
+    }
+
+    private final class Decoder implements OpusBackend.Decoder {
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment decoder;
+        private final int channels;
+
+        private final MemorySegment packetSegment = arena.allocate(MAX_PACKET_SIZE);
+        private final MemorySegment pcmSegment;
+        /* Views of the segments, for copying from and to buffers */
+        private final ByteBuffer packetView = packetSegment.asByteBuffer();
+        private final FloatBuffer pcmFloatView;
+
+        Decoder(int sampleRate, int channels) {
+            this.channels = channels;
+            try {
+                MemorySegment error = arena.allocate(JAVA_INT);
+                decoder = (MemorySegment) decoderCreate.invokeExact(sampleRate, channels, error);
+                if (error.get(JAVA_INT, 0) != OPUS_OK) {
+                    arena.close();
+                    throw new OpusException("Failed to create decoder: " + strerror(error.get(JAVA_INT, 0)));
+                }
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            pcmSegment = arena.allocate((long) MAX_FRAME_SIZE * channels * Float.BYTES, Float.BYTES);
+            pcmFloatView = pcmSegment.asByteBuffer().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        }
+
+        @Override
+        public int decodeFloat(byte[] packet, int length, float[] pcm, int offset, int frameSize, boolean fec) {
+            MemorySegment.copy(packet, 0, packetSegment, JAVA_BYTE, 0, length);
+            int result = decodeFloat(length, frameSize, fec);
+            if (result > 0) {
+                MemorySegment.copy(pcmSegment, JAVA_FLOAT, 0, pcm, offset, result * channels);
+            }
+            return result;
+        }
+
+        @Override
+        public int decodeFloat(ByteBuffer packet, int length, FloatBuffer pcm, int frameSize, boolean fec) {
+            packetView.put(0, packet, packet.position(), length);
+            int result = decodeFloat(length, frameSize, fec);
+            if (result > 0) {
+                pcm.put(pcm.position(), pcmFloatView, 0, result * channels);
+            }
+            return result;
+        }
+
+        private int decodeFloat(int length, int frameSize, boolean fec) {
+            MemorySegment data = length > 0 ? packetSegment : MemorySegment.NULL;
+            try {
+                return (int) decodeFloat.invokeExact(decoder, data, length, pcmSegment, frameSize, fec ? 1 : 0);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public int decode(byte[] packet, int length, short[] pcm, int frameSize, boolean fec) {
+            MemorySegment.copy(packet, 0, packetSegment, JAVA_BYTE, 0, length);
+            MemorySegment data = length > 0 ? packetSegment : MemorySegment.NULL;
+            int result;
+            try {
+                result = (int) decode.invokeExact(decoder, data, length, pcmSegment, frameSize, fec ? 1 : 0);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            if (result > 0) {
+                MemorySegment.copy(pcmSegment, JAVA_SHORT, 0, pcm, 0, result * channels);
+            }
+            return result;
+        }
+
+        @Override
+        public int getNbSamples(byte[] packet, int length) {
+            MemorySegment.copy(packet, 0, packetSegment, JAVA_BYTE, 0, length);
+            try {
+                return (int) decoderGetNbSamples.invokeExact(decoder, packetSegment, length);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void destroy() {
+            try {
+                decoderDestroy.invokeExact(decoder);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            } finally {
+                arena.close();
+            }
+        }
+    }
+
+    private final class Encoder implements OpusBackend.Encoder {
+        private final Arena arena = Arena.ofShared();
+        private final MemorySegment encoder;
+        private final int channels;
+
+        private final MemorySegment pcmSegment;
+        private final MemorySegment packetSegment = arena.allocate(MAX_PACKET_SIZE);
+        /* Views of the segments, for copying from and to buffers */
+        private final ShortBuffer pcmShortView;
+        private final ByteBuffer packetView = packetSegment.asByteBuffer();
+
+        Encoder(int sampleRate, int channels, int application) {
+            this.channels = channels;
+            try {
+                MemorySegment error = arena.allocate(JAVA_INT);
+                encoder = (MemorySegment) encoderCreate.invokeExact(sampleRate, channels, application, error);
+                if (error.get(JAVA_INT, 0) != OPUS_OK) {
+                    arena.close();
+                    throw new OpusException("Failed to create encoder: " + strerror(error.get(JAVA_INT, 0)));
+                }
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+            pcmSegment = arena.allocate((long) OpusEncoder.MAX_FRAME_SIZE * channels * Short.BYTES, Short.BYTES);
+            pcmShortView = pcmSegment.asByteBuffer().order(ByteOrder.nativeOrder()).asShortBuffer();
+        }
+
+        @Override
+        public int encode(short[] pcm, int frameSize, byte[] output, int maxLength) {
+            MemorySegment.copy(pcm, 0, pcmSegment, JAVA_SHORT, 0, frameSize * channels);
+            int result = encodeNative(frameSize, maxLength);
+            if (result > 0) {
+                MemorySegment.copy(packetSegment, JAVA_BYTE, 0, output, 0, result);
+            }
+            return result;
+        }
+
+        @Override
+        public int encode(ShortBuffer pcm, int frameSize, ByteBuffer output, int maxLength) {
+            pcmShortView.put(0, pcm, pcm.position(), frameSize * channels);
+            int result = encodeNative(frameSize, maxLength);
+            if (result > 0) {
+                output.put(output.position(), packetView, 0, result);
+            }
+            return result;
+        }
+
+        private int encodeNative(int frameSize, int maxLength) {
+            try {
+                return (int) encode.invokeExact(encoder, pcmSegment, frameSize, packetSegment,
+                        Math.min(maxLength, MAX_PACKET_SIZE));
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public int ctl(int request, int value) {
+            try {
+                return (int) encoderCtl.invokeExact(encoder, request, value);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            }
+        }
+
+        @Override
+        public void destroy() {
+            try {
+                encoderDestroy.invokeExact(encoder);
+            } catch (Throwable t) {
+                throw rethrow(t);
+            } finally {
+                arena.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package gg.grumble.core.opus;
+
+import com.sun.jna.Memory;
+import com.sun.jna.ptr.FloatByReference;
+import com.sun.jna.ptr.PointerByReference;
+import com.sun.jna.ptr.ShortByReference;
+import tomp2p.opuswrapper.Opus;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import static gg.grumble.core.opus.OpusDecoder.MAX_FRAME_SIZE;
+import static gg.grumble.core.opus.OpusDecoder.MAX_PACKET_SIZE;
+
+/**
+ * libopus through the JNA bindings of opus-java. Packets and PCM go through native memory owned by each codec,
+ * so JNA passes pointers and has no arrays to marshal.
+ */
+final class JnaOpusBackend implements OpusBackend {
+    @Override
+    public String name() {
+        return "jna";
+    }
+
+    @Override
+    public OpusBackend.Decoder createDecoder(int sampleRate, int channels) {
+        return new Decoder(sampleRate, channels);
+    }
+
+    @Override
+    public OpusBackend.Encoder createEncoder(int sampleRate, int channels, int application) {
+        return new Encoder(sampleRate, channels, application);
+    }
+
+    @Override
+    public String strerror(int error) {
+        return Opus.INSTANCE.opus_strerror(error);
+    }
+
+    private static final class Decoder implements OpusBackend.Decoder {
+        private final PointerByReference decoder;
+        private final int channels;
+
+        private final Memory packetMemory = new Memory(MAX_PACKET_SIZE);
+        private final Memory pcmMemory;
+        /* Views of the native memory, for copying from and to buffers */
+        private final ByteBuffer packetView = packetMemory.getByteBuffer(0, MAX_PACKET_SIZE);
+        private final FloatBuffer pcmView;
+        private final FloatByReference pcmFloat = new FloatByReference();
+        private final ShortByReference pcmShort = new ShortByReference();
+
+        Decoder(int sampleRate, int channels) {
+            this.channels = channels;
+            IntBuffer err = IntBuffer.allocate(1);
+            decoder = Opus.INSTANCE.opus_decoder_create(sampleRate, channels, err);
+            if (err.get(0) != Opus.OPUS_OK) {
+                throw new OpusException("Failed to create decoder: " + Opus.INSTANCE.opus_strerror(err.get(0)));
+            }
+
+            pcmMemory = new Memory((long) MAX_FRAME_SIZE * channels * Float.BYTES);
+            pcmView = pcmMemory.getByteBuffer(0, pcmMemory.size()).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            pcmFloat.setPointer(pcmMemory);
+            pcmShort.setPointer(pcmMemory);
+        }
+
+        @Override
+        public int decodeFloat(byte[] packet, int length, float[] pcm, int offset, int frameSize, boolean fec) {
+            if (length > 0) {
+                packetMemory.write(0, packet, 0, length);
+            }
+            int result = decodeFloat(length, frameSize, fec);
+            if (result > 0) {
+                pcmMemory.read(0, pcm, offset, result * channels);
+            }
+            return result;
+        }
+
+        @Override
+        public int decodeFloat(ByteBuffer packet, int length, FloatBuffer pcm, int frameSize, boolean fec) {
+            packetView.put(0, packet, packet.position(), length);
+            int result = decodeFloat(length, frameSize, fec);
+            if (result > 0) {
+                pcm.put(pcm.position(), pcmView, 0, result * channels);
+            }
+            return result;
+        }
+
+        private int decodeFloat(int length, int frameSize, boolean fec) {
+            return Opus.INSTANCE.opus_decode_float(decoder, length > 0 ? packetMemory : null, length,
+                    pcmFloat, frameSize, fec ? 1 : 0);
+        }
+
+        @Override
+        public int decode(byte[] packet, int length, short[] pcm, int frameSize, boolean fec) {
+            if (length > 0) {
+                packetMemory.write(0, packet, 0, length);
+            }
+            int result = Opus.INSTANCE.opus_decode(decoder, length > 0 ? packetMemory : null, length,
+                    pcmShort, frameSize, fec ? 1 : 0);
+            if (result > 0) {
+                pcmMemory.read(0, pcm, 0, result * channels);
+            }
+            return result;
+        }
+
+        @Override
+        public int getNbSamples(byte[] packet, int length) {
+            packetMemory.write(0, packet, 0, length);
+            return Opus.INSTANCE.opus_decoder_get_nb_samples(decoder, packetMemory, length);
+        }
+
+        @Override
+        public void destroy() {
+            Opus.INSTANCE.opus_decoder_destroy(decoder);
+            packetMemory.close();
+            pcmMemory.close();
+        }
+    }
+
+    private static final class Encoder implements OpusBackend.Encoder {
+        private final PointerByReference encoder;
+        private final int channels;
+
+        /* Direct buffers at position 0, JNA passes their address without copying */
+        private final ShortBuffer pcmDirect;
+        private final ByteBuffer packetDirect = ByteBuffer.allocateDirect(MAX_PACKET_SIZE);
+
+        Encoder(int sampleRate, int channels, int application) {
+            this.channels = channels;
+            IntBuffer err = IntBuffer.allocate(1);
+            encoder = new PointerByReference();
+            var enc = Opus.INSTANCE.opus_encoder_create(sampleRate, channels, application, err);
+            if (err.get(0) != Opus.OPUS_OK) {
+                throw new OpusException("Failed to create encoder: " + Opus.INSTANCE.opus_strerror(err.get(0)));
+            }
+            encoder.setPointer(enc.getPointer());
+
+            pcmDirect = ByteBuffer.allocateDirect(OpusEncoder.MAX_FRAME_SIZE * channels * Short.BYTES)
+                    .order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+        }
+
+        @Override
+        public int encode(short[] pcm, int frameSize, byte[] output, int maxLength) {
+            pcmDirect.put(0, pcm, 0, frameSize * channels);
+            int result = encodeNative(frameSize, maxLength);
+            if (result > 0) {
+                packetDirect.get(0, output, 0, result);
+            }
+            return result;
+        }
+
+        @Override
+        public int encode(ShortBuffer pcm, int frameSize, ByteBuffer output, int maxLength) {
+            pcmDirect.put(0, pcm, pcm.position(), frameSize * channels);
+            int result = encodeNative(frameSize, maxLength);
+            if (result > 0) {
+                output.put(output.position(), packetDirect, 0, result);
+            }
+            return result;
+        }
+
+        private int encodeNative(int frameSize, int maxLength) {
+            return Opus.INSTANCE.opus_encode(encoder, pcmDirect, frameSize, packetDirect,
+                    Math.min(maxLength, packetDirect.capacity()));
+        }
+
+        @Override
+        public int ctl(int request, int value) {
+            return Opus.INSTANCE.opus_encoder_ctl(encoder, request, value);
+        }
+
+        @Override
+        public void destroy() {
+            Opus.INSTANCE.opus_encoder_destroy(encoder);
+        }
+    }
+}
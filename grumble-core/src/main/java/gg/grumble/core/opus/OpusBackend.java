@@ -0,0 +1,54 @@
+package gg.grumble.core.opus;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A way of calling libopus. {@link OpusDecoder} and {@link OpusEncoder} check arguments, turn errors into
+ * {@link OpusException}s and move buffer positions, a backend only copies in, calls and copies out.
+ * <p>
+ * Calls return what libopus returned, negative for an error code. Buffers are read and written at their position,
+ * which is left as it was.
+ */
+interface OpusBackend {
+    String name();
+
+    Decoder createDecoder(int sampleRate, int channels);
+
+    Encoder createEncoder(int sampleRate, int channels, int application);
+
+    String strerror(int error);
+
+    interface Decoder {
+        /**
+         * @param length Packet length, 0 for packet loss concealment
+         * @return Samples per channel decoded into pcm at offset
+         */
+        int decodeFloat(byte[] packet, int length, float[] pcm, int offset, int frameSize, boolean fec);
+
+        int decodeFloat(ByteBuffer packet, int length, FloatBuffer pcm, int frameSize, boolean fec);
+
+        int decode(byte[] packet, int length, short[] pcm, int frameSize, boolean fec);
+
+        int getNbSamples(byte[] packet, int length);
+
+        void destroy();
+    }
+
+    interface Encoder {
+        /**
+         * @return Length of the packet put at the start of output
+         */
+        int encode(short[] pcm, int frameSize, byte[] output, int maxLength);
+
+        int encode(ShortBuffer pcm, int frameSize, ByteBuffer output, int maxLength);
+
+        /**
+         * A request of opus_encoder_ctl that sets an int.
+         */
+        int ctl(int request, int value);
+
+        void destroy();
+    }
+}
@@ -0,0 +1,50 @@
+package gg.grumble.core.opus;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Picks the {@link OpusBackend} codecs use, once, when the first one is created.
+ * <p>
+ * JNA by default. With {@code -Dgrumble.opus.backend=ffm} the foreign function API is used instead, if the JVM was
+ * started with {@code --enable-preview} (it's a preview in Java 21), otherwise it falls back to JNA. The FFM class
+ * file is a Java 21 preview class file, so a newer JVM refuses to load it and JNA is used there too.
+ */
+final class OpusBackends {
+    private static final Logger LOG = LoggerFactory.getLogger(OpusBackends.class);
+
+    static final OpusBackend DEFAULT = defaultBackend();
+
+    private OpusBackends() {
+    }
+
+    private static OpusBackend defaultBackend() {
+        String name = System.getProperty("grumble.opus.backend", "jna");
+        if (!name.equals("ffm")) {
+            return new JnaOpusBackend();
+        }
+        try {
+            OpusBackend backend = byName(name);
+            LOG.debug("Using FFM Opus backend");
+            return backend;
+        } catch (ReflectiveOperationException | LinkageError | UnsupportedOperationException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            LOG.info("Using JNA Opus backend, FFM not usable: {}", cause.toString());
+            return new JnaOpusBackend();
+        }
+    }
+
+    /**
+     * @param name {@code jna} or {@code ffm}
+     */
+    static OpusBackend byName(String name) throws ReflectiveOperationException {
+        return switch (name) {
+            case "jna" -> new JnaOpusBackend();
+            // By name, so a JVM without --enable-preview never loads the class
+            case "ffm" -> (OpusBackend) Class.forName("gg.grumble.core.opus.FfmOpusBackend")
+                    .getDeclaredConstructor()
+                    .newInstance();
+            default -> throw new IllegalArgumentException("Unknown Opus backend: " + name);
+        };
+    }
+}
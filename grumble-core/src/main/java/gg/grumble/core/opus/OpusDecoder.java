@@ -1,25 +1,34 @@
 package gg.grumble.core.opus;
 
-import com.sun.jna.ptr.PointerByReference;
-import tomp2p.opuswrapper.Opus;
-
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
+/**
+ * Decodes one Opus stream.
+ * <p>
+ * Packets and PCM go through native memory owned by the decoder, so a call copies the packet in and the samples out
+ * with nothing to marshal and nothing allocated. In exchange a decoder is not thread safe: it must be
+ * confined to one thread at a time, and destroyed by that thread. {@code MumbleClient} keeps its session decoders
+ * on the audio thread. How libopus is called is up to {@link OpusBackends}.
+ */
 public class OpusDecoder {
+    /* Largest packet Opus produces, and 120 ms of samples, the longest a packet can hold */
+    public static final int MAX_PACKET_SIZE = 1275 * 3;
+    public static final int MAX_FRAME_SIZE = 5760;
 
-    private final PointerByReference decoder;
+    private final OpusBackend backend;
+    private final OpusBackend.Decoder decoder;
     private final int channels;
+    private boolean destroyed;
 
     public OpusDecoder(int sampleRate, int channels) {
-        this.channels = channels;
+        this(OpusBackends.DEFAULT, sampleRate, channels);
+    }
 
-        var err = java.nio.IntBuffer.allocate(1);
-        var dec = Opus.INSTANCE.opus_decoder_create(sampleRate, channels, err);
-        if (err.get(0) != Opus.OPUS_OK) {
-            throw new OpusException("Failed to create decoder: " + Opus.INSTANCE.opus_strerror(err.get(0)));
-        }
-        this.decoder = dec;
+    OpusDecoder(OpusBackend backend, int sampleRate, int channels) {
+        this.backend = backend;
+        this.channels = channels;
+        this.decoder = backend.createDecoder(sampleRate, channels);
     }
 
     public int decode(byte[] encoded, short[] pcm, int frameSize) {
@@ -27,21 +36,16 @@ public class OpusDecoder {
     }
 
     public int decode(byte[] encoded, short[] pcm, int frameSize, boolean fec) {
-        ShortBuffer pcmBuf = ShortBuffer.wrap(pcm);
-        int result = Opus.INSTANCE.opus_decode(decoder, encoded, encoded.length, pcmBuf, frameSize, fec ? 1 : 0);
-        if (result < 0) {
-            throw new OpusException("Decoding failed: " + Opus.INSTANCE.opus_strerror(result));
-        }
-        return result * channels;
+        int length = checkPacket(encoded.length);
+        int result = decoder.decode(encoded, length, pcm, clampFrameSize(frameSize, pcm.length), fec);
+        return checkDecoded(result);
     }
 
     public int decodeFloat(byte[] packet, float[] pcm, int offset, int frameSize) {
-        float[] temp = new float[frameSize];
-        int decoded = decodeFloat(packet, temp, frameSize);
-        if (decoded > 0) {
-            System.arraycopy(temp, 0, pcm, offset, decoded);
-        }
-        return decoded;
+        int length = checkPacket(packet.length);
+        int result = decoder.decodeFloat(packet, length, pcm, offset,
+                clampFrameSize(frameSize, pcm.length - offset), false);
+        return checkDecoded(result);
     }
 
     public int decodeFloat(byte[] encoded, float[] pcm, int frameSize) {
@@ -49,10 +53,52 @@ public class OpusDecoder {
     }
 
     public int decodeFloat(byte[] encoded, float[] pcm, int frameSize, boolean fec) {
-        FloatBuffer pcmBuf = FloatBuffer.wrap(pcm);
-        int result = Opus.INSTANCE.opus_decode_float(decoder, encoded, encoded.length, pcmBuf, frameSize, fec ? 1 : 0);
+        return decodeFloat(encoded, encoded.length, pcm, frameSize, fec);
+    }
+
+    /**
+     * Decode a packet that only fills the start of its array, e.g. a reused buffer.
+     */
+    public int decodeFloat(byte[] encoded, int length, float[] pcm, int frameSize, boolean fec) {
+        int result = decoder.decodeFloat(encoded, checkPacket(length), pcm, 0, clampFrameSize(frameSize, pcm.length), fec);
+        return checkDecoded(result);
+    }
+
+    /**
+     * Decode the packet between the position and limit of a buffer, which is left as it was.
+     * The samples are put at the position of pcm, which advances past them.
+     *
+     * @param packet    Opus packet, empty for packet loss concealment
+     * @param pcm       Interleaved output samples
+     * @param frameSize Most samples per channel to decode
+     * @param fec       Decode the in-band FEC of the packet, to stand in for the one before it
+     * @return Number of samples decoded, counting every channel
+     */
+    public int decodeFloat(ByteBuffer packet, FloatBuffer pcm, int frameSize, boolean fec) {
+        int length = checkPacket(packet.remaining());
+        int decoded = checkDecoded(decoder.decodeFloat(packet, length, pcm,
+                clampFrameSize(frameSize, pcm.remaining()), fec));
+        pcm.position(pcm.position() + decoded);
+        return decoded;
+    }
+
+    private static int checkPacket(int length) {
+        if (length > MAX_PACKET_SIZE) {
+            throw new OpusException("Packet too large: " + length + " bytes");
+        }
+        return length;
+    }
+
+    /**
+     * @param capacity Samples the output has room for, counting every channel
+     */
+    private int clampFrameSize(int frameSize, int capacity) {
+        return Math.min(Math.min(frameSize, capacity / channels), MAX_FRAME_SIZE);
+    }
+
+    private int checkDecoded(int result) {
         if (result < 0) {
-            throw new OpusException("Decoding failed: " + Opus.INSTANCE.opus_strerror(result));
+            throw new OpusException("Decoding failed: " + backend.strerror(result));
         }
         return result * channels;
     }
@@ -63,20 +109,26 @@ public class OpusDecoder {
      * @return number of samples per channel in this packet
      */
     public int getNbSamples(byte[] data) {
-        int nbSamples = Opus.INSTANCE.opus_decoder_get_nb_samples(decoder, data, data.length);
+        return getNbSamples(data, data.length);
+    }
+
+    /**
+     * @param data   the encoded opus packet, at the start of the array
+     * @param length length of the packet
+     * @return number of samples per channel in this packet
+     */
+    public int getNbSamples(byte[] data, int length) {
+        int nbSamples = decoder.getNbSamples(data, checkPacket(length));
         if (nbSamples < 0) {
-            throw new OpusException("opus_decoder_get_nb_samples failed: " + Opus.INSTANCE.opus_strerror(nbSamples));
+            throw new OpusException("opus_decoder_get_nb_samples failed: " + backend.strerror(nbSamples));
         }
         return nbSamples;
     }
 
     public void destroy() {
-        if (decoder != null) {
-            Opus.INSTANCE.opus_decoder_destroy(decoder);
+        if (!destroyed) {
+            destroyed = true;
+            decoder.destroy();
         }
     }
-
-    public PointerByReference getNative() {
-        return decoder;
-    }
 }
@@ -1,58 +1,117 @@
 package gg.grumble.core.opus;
 
-import com.sun.jna.ptr.PointerByReference;
 import tomp2p.opuswrapper.Opus;
 
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
 import java.util.Objects;
 
+/**
+ * Encodes one Opus stream.
+ * <p>
+ * Samples and packets go through native memory owned by the encoder, which libopus reads and writes as it is,
+ * so a call copies the samples in and the packet out and allocates nothing.
+ * Not thread safe: an encoder must be confined to one thread at a time, {@code MumbleClient} uses its own
+ * from the audio input thread only. How libopus is called is up to {@link OpusBackends}.
+ */
 public class OpusEncoder {
-    private final PointerByReference encoder;
+    /* 120 ms of samples, the longest frame Opus encodes */
+    public static final int MAX_FRAME_SIZE = 5760;
+
+    private final OpusBackend backend;
+    private final OpusBackend.Encoder encoder;
+    private final int channels;
+    private boolean destroyed;
 
     public OpusEncoder(int sampleRate, int channels, int application) {
-        encoder = new PointerByReference();
-        var errorBuf = java.nio.IntBuffer.allocate(1);
-        var enc = Opus.INSTANCE.opus_encoder_create(sampleRate, channels, application, errorBuf);
-        if (errorBuf.get(0) != Opus.OPUS_OK) {
-            throw new OpusException("Failed to create encoder: " + Opus.INSTANCE.opus_strerror(errorBuf.get(0)));
-        }
-        this.encoder.setPointer(enc.getPointer());
+        this(OpusBackends.DEFAULT, sampleRate, channels, application);
+    }
+
+    OpusEncoder(OpusBackend backend, int sampleRate, int channels, int application) {
+        this.backend = backend;
+        this.channels = channels;
+        this.encoder = backend.createEncoder(sampleRate, channels, application);
     }
 
     public int encode(short[] pcm, int frameSize, byte[] output) {
         Objects.requireNonNull(pcm);
         Objects.requireNonNull(output);
 
-        ShortBuffer pcmBuf = ShortBuffer.wrap(pcm);
-        ByteBuffer outBuf = ByteBuffer.wrap(output);
+        checkFrameSize(frameSize);
+        return checkEncoded(encoder.encode(pcm, frameSize, output, output.length));
+    }
+
+    /**
+     * Encode the samples at the position of pcm, which advances past them.
+     * The packet is put at the position of output, which advances past it.
+     *
+     * @param pcm       Interleaved samples, frameSize per channel
+     * @param frameSize Samples per channel, a frame size Opus supports
+     * @param output    Buffer for the packet
+     * @return Length of the packet
+     */
+    public int encode(ShortBuffer pcm, int frameSize, ByteBuffer output) {
+        checkFrameSize(frameSize);
+        int encoded = checkEncoded(encoder.encode(pcm, frameSize, output, output.remaining()));
+        pcm.position(pcm.position() + frameSize * channels);
+        output.position(output.position() + encoded);
+        return encoded;
+    }
 
-        int encoded = Opus.INSTANCE.opus_encode(encoder, pcmBuf, frameSize, outBuf, output.length);
+    private int checkEncoded(int encoded) {
         if (encoded < 0) {
-            throw new OpusException("Encoding failed: " + Opus.INSTANCE.opus_strerror(encoded));
+            throw new OpusException("Encoding failed: " + backend.strerror(encoded));
         }
         return encoded;
     }
 
+    private static void checkFrameSize(int frameSize) {
+        if (frameSize > MAX_FRAME_SIZE) {
+            throw new OpusException("Frame too long: " + frameSize + " samples");
+        }
+    }
+
     public void destroy() {
-        if (encoder != null) {
-            Opus.INSTANCE.opus_encoder_destroy(encoder);
+        if (!destroyed) {
+            destroyed = true;
+            encoder.destroy();
         }
     }
 
     public void setBitrate(int bitrate) {
-        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_BITRATE_REQUEST, bitrate);
+        encoder.ctl(Opus.OPUS_SET_BITRATE_REQUEST, bitrate);
     }
 
     public void setComplexity(int complexity) {
-        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_COMPLEXITY_REQUEST, complexity);
+        encoder.ctl(Opus.OPUS_SET_COMPLEXITY_REQUEST, complexity);
     }
 
     public void setInbandFEC(boolean enabled) {
-        Opus.INSTANCE.opus_encoder_ctl(encoder, Opus.OPUS_SET_INBAND_FEC_REQUEST, enabled ? 1 : 0);
+        encoder.ctl(Opus.OPUS_SET_INBAND_FEC_REQUEST, enabled ? 1 : 0);
+    }
+
+    /**
+     * @param percent Expected packet loss, 0 to 100. In-band FEC only adds redundancy when this isn't 0
+     */
+    public void setPacketLossPercent(int percent) {
+        encoder.ctl(Opus.OPUS_SET_PACKET_LOSS_PERC_REQUEST, percent);
+    }
+
+    /**
+     * With DTX, silence is encoded as packets of at most 2 bytes, which don't need to be sent.
+     */
+    public void setDTX(boolean enabled) {
+        encoder.ctl(Opus.OPUS_SET_DTX_REQUEST, enabled ? 1 : 0);
     }
 
-    public PointerByReference getNative() {
-        return encoder;
+    /**
+     * Apply all the settings a controller picked.
+     */
+    public void apply(OpusEncoderController.Settings settings) {
+        setBitrate(settings.bitrate());
+        setComplexity(settings.complexity());
+        setInbandFEC(settings.fec());
+        setPacketLossPercent(settings.packetLossPercent());
+        setDTX(settings.dtx());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,175 @@
+package gg.grumble.core.opus;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.PLAYBACK_DURATION_MS;
+
+/**
+ * Picks encoder settings for an outgoing voice stream from how the link to the server behaves.
+ * <p>
+ * The bandwidth budget, the smaller of our own and the server's max_bandwidth, covers the Opus bitrate plus
+ * the IP, UDP and Mumble headers of every packet. When a good bitrate doesn't fit, frames are packed 40 or 60 ms
+ * to a packet to cut the header overhead, which we also do on slow links where the extra delay hardly matters.
+ * Loss reported for our packets turns on in-band FEC, with the encoder told how much loss to expect.
+ * <p>
+ * Statistics come in from the network threads, the encoding thread picks up {@link #getSettings()}.
+ */
+public class OpusEncoderController {
+    /* IPv4 + UDP + OCB2 tag and IV + Mumble type, target, sequence and length */
+    static final int PACKET_OVERHEAD_BYTES = 20 + 8 + 4 + 8;
+    public static final int MIN_BITRATE = 8000;
+    public static final int MAX_BITRATE = 96000;
+    /* Below this we'd rather pack more frames per packet than lose more quality */
+    static final int GOOD_BITRATE = 24000;
+    public static final int MAX_FRAMES_PER_PACKET = 3;
+
+    /* Round trip from which the delay of bigger packets is worth the saved overhead */
+    private static final float SLOW_LINK_RTT_MS = 150f;
+    /* Loss from which FEC is worth its bits */
+    private static final float FEC_LOSS = 0.01f;
+    private static final int MAX_LOSS_PERCENT = 30;
+    /* Weight of a new ping period in the smoothed loss and round trip */
+    private static final float SMOOTHING = 0.25f;
+
+    public record Settings(int bitrate, int complexity, boolean fec, int packetLossPercent, boolean dtx,
+                           int framesPerPacket) {
+    }
+
+    private int targetBitrate = 40000;
+    private int bandwidthBudget = 72000;
+    private int serverMaxBandwidth = 0;
+    private int complexity = 10;
+    private boolean dtx = true;
+    private int maxFramesPerPacket = MAX_FRAMES_PER_PACKET;
+
+    private float loss = 0f;
+    private float rttMs = 0f;
+    private boolean hasRtt = false;
+    private long lastGood, lastLate, lastLost;
+    private boolean hasCounters = false;
+
+    private volatile Settings settings;
+
+    public OpusEncoderController() {
+        update();
+    }
+
+    /**
+     * @return Settings to encode the next packet with
+     */
+    public Settings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Cumulative counters of our packets as the server decrypted them, e.g. from its ping replies.
+     */
+    public synchronized void onPacketCounters(long good, long late, long lost) {
+        if (hasCounters && good >= lastGood && late >= lastLate && lost >= lastLost) {
+            long dGood = good - lastGood;
+            long dBad = (late - lastLate) + (lost - lastLost);
+            long total = dGood + dBad;
+            if (total > 0) {
+                loss += ((float) dBad / total - loss) * SMOOTHING;
+            }
+        }
+        // Counters going backwards mean a new crypt state, start over from there
+        lastGood = good;
+        lastLate = late;
+        lastLost = lost;
+        hasCounters = true;
+        update();
+    }
+
+    public synchronized void onRoundTrip(float ms) {
+        rttMs = hasRtt ? rttMs + (ms - rttMs) * SMOOTHING : ms;
+        hasRtt = true;
+        update();
+    }
+
+    /**
+     * @param bitsPerSecond The server's max_bandwidth, 0 if it has none
+     */
+    public synchronized void setServerMaxBandwidth(int bitsPerSecond) {
+        this.serverMaxBandwidth = bitsPerSecond;
+        update();
+    }
+
+    /**
+     * @param bitsPerSecond Most we may send, headers included
+     */
+    public synchronized void setBandwidthBudget(int bitsPerSecond) {
+        this.bandwidthBudget = bitsPerSecond;
+        update();
+    }
+
+    /**
+     * @param bitsPerSecond Opus bitrate to use when the budget allows it
+     */
+    public synchronized void setTargetBitrate(int bitsPerSecond) {
+        this.targetBitrate = bitsPerSecond;
+        update();
+    }
+
+    /**
+     * @param complexity Opus complexity, 0 to 10. Lower costs less CPU, e.g. for many bots on one host
+     */
+    public synchronized void setComplexity(int complexity) {
+        this.complexity = Math.max(0, Math.min(10, complexity));
+        update();
+    }
+
+    public synchronized void setDTX(boolean dtx) {
+        this.dtx = dtx;
+        update();
+    }
+
+    /**
+     * @param frames Most 20 ms frames to pack into a packet, 1 to 3
+     */
+    public synchronized void setMaxFramesPerPacket(int frames) {
+        this.maxFramesPerPacket = Math.max(1, Math.min(MAX_FRAMES_PER_PACKET, frames));
+        update();
+    }
+
+    public synchronized void reset() {
+        loss = 0f;
+        rttMs = 0f;
+        hasRtt = false;
+        hasCounters = false;
+        serverMaxBandwidth = 0;
+        update();
+    }
+
+    /**
+     * @return Smoothed share of our packets lost or late
+     */
+    public synchronized float getLoss() {
+        return loss;
+    }
+
+    static int overheadBitrate(int framesPerPacket) {
+        return PACKET_OVERHEAD_BYTES * 8 * 1000 / (PLAYBACK_DURATION_MS * framesPerPacket);
+    }
+
+    private void update() {
+        int budget = bandwidthBudget;
+        if (serverMaxBandwidth > 0) {
+            budget = Math.min(budget, serverMaxBandwidth);
+        }
+
+        int frames = hasRtt && rttMs >= SLOW_LINK_RTT_MS ? Math.min(2, maxFramesPerPacket) : 1;
+        while (frames < maxFramesPerPacket && budget - overheadBitrate(frames) < Math.min(GOOD_BITRATE, targetBitrate)) {
+            frames++;
+        }
+
+        int bitrate = Math.min(targetBitrate, budget - overheadBitrate(frames));
+        bitrate = Math.max(MIN_BITRATE, Math.min(MAX_BITRATE, bitrate));
+
+        boolean fec = loss >= FEC_LOSS;
+        int lossPercent = fec ? Math.min(MAX_LOSS_PERCENT, Math.round(loss * 100)) : 0;
+        if (fec) {
+            lossPercent = Math.max(1, lossPercent);
+        }
+
+        settings = new Settings(bitrate, complexity, fec, lossPercent, dtx, frames);
+    }
+}
@@ -1,27 +1,20 @@
 package gg.grumble.core.utils;
 
+import gg.grumble.core.audio.dsp.Dsp;
+
 public final class AudioUtils {
     private AudioUtils() {
     }
 
     public static short[] bytesToShorts(byte[] bytes) {
-        int samples = bytes.length / 2;          // 1920 bytes → 960 samples
-        short[] pcm = new short[samples];
-        for (int i = 0, j = 0; i < samples; i++) {
-            int lo = bytes[j++] & 0xFF;          // low  byte
-            int hi = bytes[j++] << 8;            // high byte (signed shift)
-            pcm[i] = (short) (hi | lo);
-        }
+        short[] pcm = new short[bytes.length / 2];    // 1920 bytes → 960 samples
+        Dsp.KERNELS.pcm16ToShorts(bytes, 0, pcm, pcm.length);
         return pcm;
     }
 
     public static byte[] shortsToBytes(short[] shorts) {
-        byte[] pcm = new byte[shorts.length * 2];  // 960 samples → 1920 bytes
-        for (int i = 0, j = 0; i < shorts.length; i++) {
-            short s = shorts[i];
-            pcm[j++] = (byte) s;                   // low byte
-            pcm[j++] = (byte)(s >>> 8);            // high byte, unsigned shift
-        }
+        byte[] pcm = new byte[shorts.length * 2];     // 960 samples → 1920 bytes
+        Dsp.KERNELS.shortsToPcm16(shorts, shorts.length, pcm, 0);
         return pcm;
     }
 }
@@ -0,0 +1,189 @@
+package gg.grumble.core.utils;
+
+import java.util.Arrays;
+
+/**
+ * Packets indexed by sequence number, in a fixed ring of reusable slots.
+ * <p>
+ * A sequence always lives in slot {@code sequence % capacity}, so insert, lookup and removal are O(1) without boxing.
+ * Buffered sequences always span less than the capacity: inserting past the end of that window evicts the oldest
+ * packets, and packets older than the window are refused. Slot storage is allocated on first use and reused after,
+ * so a buffer in steady state doesn't allocate. Not thread safe.
+ */
+public class PacketRingBuffer {
+    private static final long EMPTY = -1;
+
+    /* Smallest slot allocation, big enough for typical voice packets so slots rarely grow */
+    private static final int MIN_SLOT_SIZE = 256;
+
+    private final int mask;
+    private final long[] sequences;
+    private final byte[][] packets;
+    private final int[] lengths;
+
+    private int size = 0;
+    private long first = EMPTY;
+    private long last = EMPTY;
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two
+     */
+    public PacketRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        int slots = Integer.highestOneBit(capacity);
+        if (slots < capacity) slots <<= 1;
+
+        this.mask = slots - 1;
+        this.sequences = new long[slots];
+        this.packets = new byte[slots][];
+        this.lengths = new int[slots];
+        Arrays.fill(sequences, EMPTY);
+    }
+
+    public int capacity() {
+        return sequences.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return Lowest buffered sequence, or -1 if empty
+     */
+    public long first() {
+        return first;
+    }
+
+    /**
+     * @return Highest buffered sequence, or -1 if empty
+     */
+    public long last() {
+        return last;
+    }
+
+    public boolean contains(long sequence) {
+        return sequence >= 0 && sequences[slot(sequence)] == sequence;
+    }
+
+    /**
+     * Copy a packet into the buffer.
+     *
+     * @param sequence Sequence number, non-negative
+     * @param data     Packet data
+     * @param offset   Offset of the packet in data
+     * @param length   Length of the packet
+     * @return False if the sequence is already buffered, or too old to fit the window
+     */
+    public boolean put(long sequence, byte[] data, int offset, int length) {
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Negative sequence: " + sequence);
+        }
+        if (contains(sequence)) {
+            return false;
+        }
+
+        if (size > 0) {
+            if (sequence <= last - sequences.length) {
+                // Older than anything the window can hold next to the newest packet
+                return false;
+            }
+            // Make room by dropping the oldest packets out of the window
+            while (size > 0 && sequence >= first + sequences.length) {
+                removeFirst();
+            }
+        }
+
+        int slot = slot(sequence);
+        byte[] packet = packets[slot];
+        if (packet == null || packet.length < length) {
+            packet = new byte[Math.max(length, MIN_SLOT_SIZE)];
+            packets[slot] = packet;
+        }
+        System.arraycopy(data, offset, packet, 0, length);
+        lengths[slot] = length;
+        sequences[slot] = sequence;
+
+        if (size++ == 0) {
+            first = last = sequence;
+        } else {
+            first = Math.min(first, sequence);
+            last = Math.max(last, sequence);
+        }
+        return true;
+    }
+
+    /**
+     * The slot's array is reused, so it's only valid until the sequence is removed or replaced.
+     *
+     * @return Slot array holding the packet at the start, or null if the sequence isn't buffered
+     */
+    public byte[] packet(long sequence) {
+        return contains(sequence) ? packets[slot(sequence)] : null;
+    }
+
+    /**
+     * @return Length of the packet, or -1 if the sequence isn't buffered
+     */
+    public int length(long sequence) {
+        return contains(sequence) ? lengths[slot(sequence)] : -1;
+    }
+
+    /**
+     * @return True if the sequence was buffered
+     */
+    public boolean remove(long sequence) {
+        if (!contains(sequence)) {
+            return false;
+        }
+        sequences[slot(sequence)] = EMPTY;
+        if (--size == 0) {
+            first = last = EMPTY;
+        } else if (sequence == first) {
+            first = scanUp(sequence + 1);
+        } else if (sequence == last) {
+            last = scanDown(sequence - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Remove the lowest buffered sequence.
+     *
+     * @return The sequence removed, or -1 if empty
+     */
+    public long removeFirst() {
+        long sequence = first;
+        if (sequence != EMPTY) {
+            remove(sequence);
+        }
+        return sequence;
+    }
+
+    public void clear() {
+        Arrays.fill(sequences, EMPTY);
+        size = 0;
+        first = last = EMPTY;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    /* Buffered sequences span less than the capacity, so these stop within one lap of the ring */
+    private long scanUp(long from) {
+        while (sequences[slot(from)] != from) from++;
+        return from;
+    }
+
+    private long scanDown(long from) {
+        while (sequences[slot(from)] != from) from--;
+        return from;
+    }
+}
@@ -0,0 +1,77 @@
+package gg.grumble.core.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeStretcherTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int CHANNELS = 2;
+    private static final int FRAMES = 960;
+
+    /* 200 Hz, a period of 240 frames */
+    private static float[] tone(int extraFrames) {
+        float[] pcm = new float[(FRAMES + extraFrames) * CHANNELS];
+        for (int i = 0; i < FRAMES; i++) {
+            float v = (float) Math.sin(2 * Math.PI * 200 * i / SAMPLE_RATE) * 0.5f;
+            pcm[i * CHANNELS] = v;
+            pcm[i * CHANNELS + 1] = v;
+        }
+        return pcm;
+    }
+
+    /* Largest jump between neighbouring samples of the left channel, a splice out of phase shows up here */
+    private static float maxStep(float[] pcm, int length) {
+        float max = 0;
+        for (int i = CHANNELS; i < length; i += CHANNELS) {
+            max = Math.max(max, Math.abs(pcm[i] - pcm[i - CHANNELS]));
+        }
+        return max;
+    }
+
+    @Test
+    void testCompressRemovesWholePeriods() {
+        float[] pcm = tone(0);
+        float step = maxStep(pcm, pcm.length);
+
+        int length = TimeStretcher.compress(pcm, pcm.length, CHANNELS, SAMPLE_RATE);
+        assertTrue(length < pcm.length, "periodic frame should be shortened");
+        assertEquals(0, (pcm.length - length) / CHANNELS % 240, "should cut whole periods");
+        assertTrue(maxStep(pcm, length) <= step * 1.01f, "splice should be continuous");
+    }
+
+    @Test
+    void testExpandInsertsWholePeriods() {
+        float[] pcm = tone(0);
+        float[] out = new float[pcm.length * 3 / 2];
+        float step = maxStep(pcm, pcm.length);
+
+        int length = TimeStretcher.expand(pcm, pcm.length, out, CHANNELS, SAMPLE_RATE);
+        assertTrue(length > pcm.length, "periodic frame should be lengthened");
+        assertTrue(length <= out.length);
+        assertEquals(0, (length - pcm.length) / CHANNELS % 240, "should insert whole periods");
+        assertTrue(maxStep(out, length) <= step * 1.01f, "splice should be continuous");
+    }
+
+    @Test
+    void testNoiseIsLeftAlone() {
+        Random random = new Random(1);
+        float[] pcm = new float[FRAMES * CHANNELS];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (random.nextFloat() - 0.5f) * 0.5f;
+        }
+        float[] copy = pcm.clone();
+
+        assertEquals(pcm.length, TimeStretcher.compress(pcm, pcm.length, CHANNELS, SAMPLE_RATE));
+        assertArrayEquals(copy, pcm);
+        assertEquals(0, TimeStretcher.expand(pcm, pcm.length, new float[pcm.length * 2], CHANNELS, SAMPLE_RATE));
+    }
+
+    @Test
+    void testSilenceIsStretchedFreely() {
+        float[] pcm = new float[FRAMES * CHANNELS];
+        assertTrue(TimeStretcher.compress(pcm, pcm.length, CHANNELS, SAMPLE_RATE) < pcm.length);
+    }
+}
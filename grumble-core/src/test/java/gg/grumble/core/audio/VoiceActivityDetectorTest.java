@@ -0,0 +1,58 @@
+package gg.grumble.core.audio;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoiceActivityDetectorTest {
+    private static final int SAMPLE_RATE = 48000;
+    private static final int FRAME = 960;
+
+    private static short[] tone(double hz, double amplitude) {
+        short[] pcm = new short[FRAME];
+        for (int i = 0; i < FRAME; i++) {
+            pcm[i] = (short) (Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE) * amplitude);
+        }
+        return pcm;
+    }
+
+    @Test
+    void testPreGateRejectsSilenceAndHiss() {
+        VoiceActivityDetector vad = new VoiceActivityDetector();
+        assertFalse(vad.preGate(new short[FRAME], FRAME));
+        assertFalse(vad.preGate(tone(200, 20), FRAME), "below the level threshold");
+        assertTrue(vad.preGate(tone(200, 3000), FRAME));
+
+        // Quiet white noise crosses zero about every other sample
+        Random random = new Random(1);
+        short[] hiss = new short[FRAME];
+        for (int i = 0; i < FRAME; i++) {
+            hiss[i] = (short) (random.nextGaussian() * 100);
+        }
+        assertFalse(vad.preGate(hiss, FRAME));
+    }
+
+    @Test
+    void testHangoverKeepsActiveAfterSpeech() {
+        VoiceActivityDetector vad = new VoiceActivityDetector();
+        vad.setHangover(60, 20);
+
+        assertFalse(vad.update(true, 0.1f), "pre-gate alone isn't speech");
+        assertTrue(vad.update(true, 0.9f));
+        assertTrue(vad.update(false, 0f));
+        assertTrue(vad.update(false, 0f));
+        assertTrue(vad.update(false, 0f));
+        assertFalse(vad.update(false, 0f), "hangover of 3 frames is over");
+    }
+
+    @Test
+    void testResetDropsHangover() {
+        VoiceActivityDetector vad = new VoiceActivityDetector();
+        vad.setHangover(60, 20);
+        assertTrue(vad.update(true, 0.9f));
+        vad.reset();
+        assertFalse(vad.update(false, 0f), "no hangover left from before the reset");
+    }
+}
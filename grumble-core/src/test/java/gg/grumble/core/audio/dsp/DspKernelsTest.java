@@ -0,0 +1,108 @@
+package gg.grumble.core.audio.dsp;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The Vector API kernels against the scalar ones. Odd lengths make sure the tail loops get exercised too.
+ */
+public class DspKernelsTest {
+    private static final int[] LENGTHS = {0, 1, 7, 31, 960, 1920, 1923};
+
+    private final DspKernels scalar = new ScalarDspKernels();
+    private final DspKernels vector = new VectorDspKernels();
+    private final Random random = new Random(42);
+
+    private float[] randomFloats(int length, float range) {
+        float[] values = new float[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (random.nextFloat() * 2 - 1) * range;
+        }
+        return values;
+    }
+
+    private short[] randomShorts(int length) {
+        short[] values = new short[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = (short) random.nextInt();
+        }
+        return values;
+    }
+
+    @Test
+    void testMulAdd() {
+        for (int length : LENGTHS) {
+            float[] src = randomFloats(length, 1f);
+            float[] expected = randomFloats(length, 1f);
+            float[] actual = expected.clone();
+
+            scalar.mulAdd(expected, src, 0.7f, length);
+            vector.mulAdd(actual, src, 0.7f, length);
+            assertArrayEquals(expected, actual, "length " + length);
+        }
+    }
+
+    @Test
+    void testSumOfSquaresFloat() {
+        for (int length : LENGTHS) {
+            float[] src = randomFloats(length, 1f);
+            float expected = scalar.sumOfSquares(src, length);
+            // Summed in a different order, so only close
+            assertEquals(expected, vector.sumOfSquares(src, length), Math.max(1e-6f, expected * 1e-5f), "length " + length);
+        }
+    }
+
+    @Test
+    void testSumOfSquaresShort() {
+        for (int length : LENGTHS) {
+            short[] src = randomShorts(length);
+            assertEquals(scalar.sumOfSquares(src, length), vector.sumOfSquares(src, length), "length " + length);
+        }
+
+        short[] loudest = new short[1920];
+        java.util.Arrays.fill(loudest, Short.MIN_VALUE);
+        assertEquals(1920L << 30, vector.sumOfSquares(loudest, loudest.length));
+    }
+
+    @Test
+    void testSoftLimitToPcm16() {
+        for (int length : LENGTHS) {
+            // Past 1.0 on purpose, that's where the limiter kicks in
+            float[] src = randomFloats(length, 3f);
+            if (length > 2) {
+                src[0] = 1.0f;
+                src[1] = -1.0f;
+                src[2] = 0.0f;
+            }
+            byte[] expected = new byte[length * 2 + 3];
+            byte[] actual = new byte[length * 2 + 3];
+
+            scalar.softLimitToPcm16(src, length, expected, 3);
+            vector.softLimitToPcm16(src, length, actual, 3);
+            assertArrayEquals(expected, actual, "length " + length);
+        }
+    }
+
+    @Test
+    void testPcm16Conversions() {
+        for (int length : LENGTHS) {
+            short[] src = randomShorts(length);
+            byte[] expectedBytes = new byte[length * 2 + 1];
+            byte[] actualBytes = new byte[length * 2 + 1];
+            scalar.shortsToPcm16(src, length, expectedBytes, 1);
+            vector.shortsToPcm16(src, length, actualBytes, 1);
+            assertArrayEquals(expectedBytes, actualBytes, "length " + length);
+
+            short[] roundTrip = new short[length];
+            vector.pcm16ToShorts(actualBytes, 1, roundTrip, length);
+            assertArrayEquals(src, roundTrip, "length " + length);
+
+            short[] expectedShorts = new short[length];
+            scalar.pcm16ToShorts(actualBytes, 1, expectedShorts, length);
+            assertArrayEquals(expectedShorts, roundTrip, "length " + length);
+        }
+    }
+}
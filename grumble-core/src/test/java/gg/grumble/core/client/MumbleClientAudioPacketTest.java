@@ -0,0 +1,55 @@
+package gg.grumble.core.client;
+
+import com.google.protobuf.ByteString;
+import gg.grumble.mumble.MumbleUDPProto;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MumbleClientAudioPacketTest {
+    @Test
+    void testProtobufAudioMatchesGeneratedEncoder() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (int target : new int[]{0, 1, 31, 200}) {
+            for (long frameNumber : new long[]{0, 1, 300, 1L << 40}) {
+                for (int opusLen : new int[]{0, 1, 200}) {
+                    for (boolean terminator : new boolean[]{false, true}) {
+                        byte[] opus = new byte[opusLen];
+                        for (int i = 0; i < opusLen; i++) opus[i] = (byte) (i * 7 + 3);
+
+                        byte[] expected = MumbleUDPProto.Audio.newBuilder()
+                                .setTarget(target)
+                                .setFrameNumber(frameNumber)
+                                .setOpusData(ByteString.copyFrom(opus))
+                                .setIsTerminator(terminator)
+                                .build()
+                                .toByteArray();
+
+                        buffer.clear();
+                        MumbleClient.writeProtobufAudio(buffer, target, frameNumber, opus, opusLen, terminator);
+                        byte[] actual = Arrays.copyOf(buffer.array(), buffer.position());
+
+                        assertArrayEquals(expected, actual, "target=" + target + " frame=" + frameNumber
+                                + " opus=" + opusLen + " terminator=" + terminator);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void testOnlyTheGivenLengthOfPayloadIsWritten() throws Exception {
+        byte[] opus = {1, 2, 3, 4, 5};
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        MumbleClient.writeProtobufAudio(buffer, 0, 5, opus, 3, false);
+        buffer.flip();
+
+        MumbleUDPProto.Audio audio = MumbleUDPProto.Audio.parseFrom(buffer);
+        assertEquals(ByteString.copyFrom(opus, 0, 3), audio.getOpusData());
+        assertEquals(5, audio.getFrameNumber());
+        assertFalse(audio.getIsTerminator());
+    }
+}
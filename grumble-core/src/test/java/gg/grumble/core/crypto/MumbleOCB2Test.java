@@ -3,6 +3,10 @@ package gg.grumble.core.crypto;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.Supplier;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class MumbleOCB2Test {
@@ -64,6 +68,46 @@ public class MumbleOCB2Test {
         assertEquals(TEST_MESSAGE, new String(pt), "client decrypted plaintext");
     }
 
+    @Test
+    void testKnownVectorsForEveryCipherBackend() throws MumbleOCB2.DecryptException {
+        byte[] key      = hexToBytes(KEY_HEX);
+        byte[] clientIV = hexToBytes(CLIENT_IV_HEX);
+        byte[] serverIV = hexToBytes(SERVER_IV_HEX);
+
+        List<Supplier<MumbleBlockCipher>> backends = List.of(JcaBlockCipher::new, BouncyCastleBlockCipher::new);
+        for (Supplier<MumbleBlockCipher> backend : backends) {
+            String name = backend.get().getClass().getSimpleName();
+
+            MumbleOCB2 client = new MumbleOCB2(backend);
+            assertTrue(client.setKey(key, clientIV, serverIV), name + " client:setKey failed");
+            MumbleOCB2 server = new MumbleOCB2(backend);
+            assertTrue(server.setKey(key, serverIV, clientIV), name + " server:setKey failed");
+
+            byte[] c2s = client.encrypt(TEST_MESSAGE.getBytes());
+            assertEquals(EXPECTED_S2C, bytesToHex(c2s), name + " client→server ciphertext");
+            assertEquals(TEST_MESSAGE, new String(server.decrypt(c2s)), name + " server decrypted plaintext");
+
+            byte[] s2c = server.encrypt(TEST_MESSAGE.getBytes());
+            assertEquals(EXPECTED_C2S, bytesToHex(s2c), name + " server→client ciphertext");
+            assertEquals(TEST_MESSAGE, new String(client.decrypt(s2c)), name + " client decrypted plaintext");
+        }
+    }
+
+    @Test
+    void testCipherBackendsInteroperate() throws MumbleOCB2.DecryptException {
+        MumbleOCB2 jca = new MumbleOCB2(JcaBlockCipher::new);
+        assertTrue(jca.setKey(TEST_KEY, SERVER_IV_A, SERVER_IV_B), "jca:setKey must succeed");
+        MumbleOCB2 bc = new MumbleOCB2(BouncyCastleBlockCipher::new);
+        assertTrue(bc.setKey(TEST_KEY, SERVER_IV_B, SERVER_IV_A), "bc:setKey must succeed");
+
+        for (int len = 0; len <= 64; len++) {
+            byte[] pt = new byte[len];
+            for (int i = 0; i < len; i++) pt[i] = (byte)(i*11 + len);
+            assertArrayEquals(pt, bc.decrypt(jca.encrypt(pt)), "jca→bc len="+len);
+            assertArrayEquals(pt, jca.decrypt(bc.encrypt(pt)), "bc→jca len="+len);
+        }
+    }
+
     //----------------------------------------------------------------------
 
     // utility for the rest of the tests
@@ -170,6 +214,64 @@ public class MumbleOCB2Test {
         }
     }
 
+    @Test
+    public void testDirectBufferRoundtripMatchesArrayApi() throws MumbleOCB2.DecryptException {
+        var arrayPair = makePair();
+        var bufferPair = makePair();
+        ByteBuffer plain = ByteBuffer.allocateDirect(128);
+        ByteBuffer packet = ByteBuffer.allocateDirect(128 + MumbleOCB2.HEADER_SIZE);
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(128);
+
+        for (int len : new int[]{ 0, 1, 15, 16, 17, 33, 100 }) {
+            byte[] pt = new byte[len];
+            for (int i = 0; i < len; i++) pt[i] = (byte)(i*13 + len);
+            // offset the plaintext to make sure absolute offsets are honoured
+            plain.put(5, pt);
+
+            int written = bufferPair[0].encrypt(plain, 5, len, packet, 0);
+            assertEquals(len + MumbleOCB2.HEADER_SIZE, written, "encrypted length len="+len);
+
+            byte[] ct = new byte[written];
+            packet.get(0, ct);
+            assertArrayEquals(arrayPair[0].encrypt(pt), ct, "buffer and array ciphertext len="+len);
+
+            int read = bufferPair[1].decrypt(packet, 0, written, decrypted, 3);
+            assertEquals(len, read, "decrypted length len="+len);
+
+            byte[] dt = new byte[read];
+            decrypted.get(3, dt);
+            assertArrayEquals(pt, dt, "roundtrip len="+len);
+            assertEquals(0, packet.position(), "positions must be left untouched");
+        }
+    }
+
+    @Test
+    public void testForgedBufferPacketLeavesNoPlaintext() {
+        var pair = makePair();
+        byte[] msg = new byte[40];
+        for (int i = 0; i < msg.length; i++) msg[i] = (byte)(i + 1);
+        byte[] ct = pair[0].encrypt(msg);
+        ct[1] ^= 1; // flip a bit in the tag, every block still decrypts
+
+        ByteBuffer decrypted = ByteBuffer.allocateDirect(64);
+        assertThrows(MumbleOCB2.DecryptException.class,
+                () -> pair[1].decrypt(ByteBuffer.wrap(ct), 0, ct.length, decrypted, 2));
+        for (int i = 0; i < decrypted.capacity(); i++) {
+            assertEquals(0, decrypted.get(i), "unauthenticated plaintext left at " + i);
+        }
+    }
+
+    @Test
+    public void testDestinationLimitIsHonoured() {
+        var pair = makePair();
+        byte[] ct = pair[0].encrypt(new byte[20]);
+        ByteBuffer view = ByteBuffer.allocate(64).limit(16);
+        assertThrows(IllegalArgumentException.class,
+                () -> pair[1].decrypt(ByteBuffer.wrap(ct), 0, ct.length, view, 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> pair[0].encrypt(ByteBuffer.wrap(new byte[20]), 0, 20, view, 0));
+    }
+
     //───────────────────────────────────────────────────────────────────────────
 
     // hex ↔ byte[] helpers
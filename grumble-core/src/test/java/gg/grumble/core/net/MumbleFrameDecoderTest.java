@@ -0,0 +1,91 @@
+package gg.grumble.core.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MumbleFrameDecoderTest {
+    private static final int RECORD_SIZE = 1024;
+
+    private static byte[] frame(int type, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(MumbleFrameDecoder.HEADER_SIZE + length);
+        frame.putShort((short) type).putInt(length);
+        for (int i = 0; i < length; i++) {
+            frame.put((byte) (type + i));
+        }
+        return frame.array();
+    }
+
+    /* Feed bytes the way unwrap does, at most a record at a time */
+    private static void feed(MumbleFrameDecoder decoder, byte[] data, List<byte[]> frames) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            ByteBuffer buffer = decoder.buffer();
+            int chunk = Math.min(Math.min(RECORD_SIZE, data.length - offset), buffer.remaining());
+            buffer.put(data, offset, chunk);
+            offset += chunk;
+            decoder.decode((type, payload) -> {
+                byte[] copy = new byte[payload.remaining() + 1];
+                copy[0] = (byte) (int) type;
+                payload.get(copy, 1, payload.remaining());
+                frames.add(copy);
+            });
+        }
+    }
+
+    @Test
+    void testFramesSplitAcrossReads() throws IOException {
+        MumbleFrameDecoder decoder = new MumbleFrameDecoder(RECORD_SIZE);
+        List<byte[]> frames = new ArrayList<>();
+
+        ByteBuffer stream = ByteBuffer.allocate(4000);
+        for (int i = 0; i < 20; i++) {
+            stream.put(frame(i, i * 7));
+        }
+        stream.put(frame(3, 0));
+        feed(decoder, Arrays.copyOf(stream.array(), stream.position()), frames);
+
+        assertEquals(21, frames.size());
+        for (int i = 0; i < 20; i++) {
+            byte[] f = frames.get(i);
+            assertEquals(i, f[0]);
+            assertEquals(i * 7 + 1, f.length);
+            for (int j = 0; j < i * 7; j++) {
+                assertEquals((byte) (i + j), f[j + 1]);
+            }
+        }
+        assertEquals(1, frames.get(20).length, "empty frame should be dispatched too");
+        assertEquals(2 * RECORD_SIZE, decoder.capacity());
+    }
+
+    @Test
+    void testGrowsForLargeFrameThenShrinks() throws IOException {
+        MumbleFrameDecoder decoder = new MumbleFrameDecoder(RECORD_SIZE);
+        List<byte[]> frames = new ArrayList<>();
+
+        byte[] large = frame(9, 20_000);
+        feed(decoder, Arrays.copyOf(large, 100), frames);
+        assertTrue(decoder.capacity() >= large.length + RECORD_SIZE, "should make room for the whole frame");
+
+        feed(decoder, Arrays.copyOfRange(large, 100, large.length), frames);
+        assertEquals(1, frames.size());
+        assertEquals(20_001, frames.get(0).length);
+        assertEquals(2 * RECORD_SIZE, decoder.capacity(), "should shrink back once the frame is out");
+
+        feed(decoder, frame(1, 10), frames);
+        assertEquals(2, frames.size());
+    }
+
+    @Test
+    void testRejectsOversizedFrame() {
+        MumbleFrameDecoder decoder = new MumbleFrameDecoder(RECORD_SIZE);
+        decoder.buffer().putShort((short) 1).putInt(MumbleFrameDecoder.MAX_FRAME_LENGTH + 1);
+        assertThrows(IOException.class, () -> decoder.decode((type, payload) -> fail("nothing to dispatch")));
+    }
+}
@@ -0,0 +1,92 @@
+package gg.grumble.core.net;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MumbleSendQueueTest {
+    private static ByteBuffer frame(int id, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.put(0, (byte) id);
+        return frame;
+    }
+
+    @Test
+    void testVoiceGoesFirstAndControlIsBatchedByBytes() {
+        MumbleSendQueue queue = new MumbleSendQueue();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(queue.control.offer(frame(i, 10_000)));
+        }
+        queue.voice.offer(frame(100, 60));
+        queue.voice.offer(frame(101, 60));
+
+        ByteBuffer[] batch = new ByteBuffer[16];
+        int count = queue.drainTo(batch, batch.length);
+        assertEquals(4, count, "both voice frames and control up to the batch limit");
+        assertEquals(100, batch[0].get(0));
+        assertEquals(101, batch[1].get(0));
+        assertEquals(0, batch[2].get(0));
+        assertEquals(1, batch[3].get(0));
+
+        queue.voice.offer(frame(102, 60));
+        count = queue.drainTo(batch, batch.length);
+        assertEquals(102, batch[0].get(0), "voice queued later still goes before older control");
+        assertEquals(2, batch[1].get(0));
+        assertEquals(3, batch[2].get(0));
+
+        MumbleSendLaneStats control = queue.control.stats();
+        assertEquals(0, control.depth());
+        assertEquals(0, control.bytes());
+        assertEquals(4, control.sent());
+    }
+
+    @Test
+    void testVoiceDropsOldest() {
+        MumbleSendQueue queue = new MumbleSendQueue();
+        for (int i = 0; i < MumbleSendQueue.VOICE_MAX_FRAMES + 3; i++) {
+            assertTrue(queue.voice.offer(frame(i, 60)));
+        }
+        MumbleSendLaneStats stats = queue.voice.stats();
+        assertEquals(MumbleSendQueue.VOICE_MAX_FRAMES, stats.depth());
+        assertEquals(3, stats.dropped());
+        assertEquals(3, queue.voice.poll().get(0), "the newest frames should be kept");
+    }
+
+    @Test
+    void testControlRefusesWhenFull() {
+        MumbleSendQueue queue = new MumbleSendQueue();
+        assertTrue(queue.control.offer(frame(0, MumbleSendQueue.CONTROL_MAX_BYTES - 100)));
+        assertFalse(queue.control.offer(frame(1, 200)));
+        assertTrue(queue.control.offer(frame(2, 100)));
+
+        MumbleSendLaneStats stats = queue.control.stats();
+        assertEquals(2, stats.depth());
+        assertEquals(1, stats.rejected());
+        assertEquals(0, stats.dropped());
+
+        assertEquals(0, queue.control.poll().get(0));
+        assertTrue(queue.control.offer(frame(3, 200)), "should accept again once drained");
+    }
+
+    @Test
+    void testVoiceFramesAreReused() {
+        MumbleSendQueue queue = new MumbleSendQueue();
+        ByteBuffer first = queue.acquireVoiceFrame(60);
+        assertEquals(0, first.position());
+        assertEquals(60, first.limit());
+        queue.voice.offer(first);
+        queue.control.offer(frame(1, 10));
+
+        ByteBuffer[] batch = new ByteBuffer[16];
+        assertEquals(2, queue.drainTo(batch, batch.length));
+        assertEquals(1, queue.drainedVoice, "only the voice frame goes back to the pool");
+        queue.releaseVoiceFrame(batch[0]);
+
+        ByteBuffer second = queue.acquireVoiceFrame(100);
+        assertSame(first, second);
+        assertEquals(100, second.limit());
+        assertNotSame(second, queue.acquireVoiceFrame(60), "the pool is empty again");
+    }
+}
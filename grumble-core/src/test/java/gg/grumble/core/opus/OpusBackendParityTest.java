@@ -0,0 +1,180 @@
+package gg.grumble.core.opus;
+
+import club.minnced.opus.util.OpusLibrary;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tomp2p.opuswrapper.Opus;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLES_PER_FRAME;
+import static gg.grumble.core.enums.MumbleAudioConfig.SAMPLE_RATE;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * The JNA and FFM backends call the same libopus, so the same calls must give the same bytes, samples and return
+ * codes. Needs {@code --enable-preview}, which the test task passes.
+ */
+public class OpusBackendParityTest {
+    private static final int FRAMES = 10;
+
+    private OpusBackend jna;
+    private OpusBackend ffm;
+
+    @BeforeAll
+    static void loadOpus() throws IOException {
+        OpusLibrary.loadFromJar();
+    }
+
+    @BeforeEach
+    void createBackends() throws ReflectiveOperationException {
+        jna = OpusBackends.byName("jna");
+        ffm = OpusBackends.byName("ffm");
+    }
+
+    private static short[] sineFrame(int frame) {
+        short[] pcm = new short[SAMPLES_PER_FRAME];
+        for (int i = 0; i < pcm.length; i++) {
+            int t = frame * SAMPLES_PER_FRAME + i;
+            pcm[i] = (short) (Math.sin(t * 0.05) * 8000 + Math.sin(t * 0.31) * 2000);
+        }
+        return pcm;
+    }
+
+    /* The same frames through an encoder of each backend, set up the same way */
+    private byte[][] encodeBoth(OpusBackend backend) {
+        OpusBackend.Encoder encoder = backend.createEncoder(SAMPLE_RATE, 1, Opus.OPUS_APPLICATION_VOIP);
+        try {
+            assertEquals(Opus.OPUS_OK, encoder.ctl(Opus.OPUS_SET_BITRATE_REQUEST, 32000));
+            assertEquals(Opus.OPUS_OK, encoder.ctl(Opus.OPUS_SET_INBAND_FEC_REQUEST, 1));
+            assertEquals(Opus.OPUS_BAD_ARG, encoder.ctl(Opus.OPUS_SET_COMPLEXITY_REQUEST, 11));
+
+            byte[][] packets = new byte[FRAMES][];
+            byte[] output = new byte[OpusDecoder.MAX_PACKET_SIZE];
+            for (int frame = 0; frame < FRAMES; frame++) {
+                int length = encoder.encode(sineFrame(frame), SAMPLES_PER_FRAME, output, output.length);
+                assertTrue(length > 0, backend.name() + " encode returned " + length);
+                packets[frame] = Arrays.copyOf(output, length);
+            }
+            return packets;
+        } finally {
+            encoder.destroy();
+        }
+    }
+
+    @Test
+    void testEncodersProduceTheSamePackets() {
+        byte[][] jnaPackets = encodeBoth(jna);
+        byte[][] ffmPackets = encodeBoth(ffm);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            assertArrayEquals(jnaPackets[frame], ffmPackets[frame], "packet " + frame);
+        }
+    }
+
+    @Test
+    void testBufferEncodeMatchesArrayEncode() {
+        byte[][] expected = encodeBoth(jna);
+        OpusBackend.Encoder encoder = ffm.createEncoder(SAMPLE_RATE, 1, Opus.OPUS_APPLICATION_VOIP);
+        try {
+            encoder.ctl(Opus.OPUS_SET_BITRATE_REQUEST, 32000);
+            encoder.ctl(Opus.OPUS_SET_INBAND_FEC_REQUEST, 1);
+            ShortBuffer pcm = ByteBuffer.allocateDirect(SAMPLES_PER_FRAME * 2).order(ByteOrder.nativeOrder())
+                    .asShortBuffer();
+            ByteBuffer output = ByteBuffer.allocateDirect(OpusDecoder.MAX_PACKET_SIZE);
+            for (int frame = 0; frame < FRAMES; frame++) {
+                pcm.clear();
+                pcm.put(sineFrame(frame)).flip();
+                output.clear();
+                int length = encoder.encode(pcm, SAMPLES_PER_FRAME, output, output.remaining());
+                byte[] packet = new byte[length];
+                output.get(0, packet);
+                assertArrayEquals(expected[frame], packet, "packet " + frame);
+            }
+        } finally {
+            encoder.destroy();
+        }
+    }
+
+    @Test
+    void testDecodersProduceTheSameSamples() {
+        byte[][] packets = encodeBoth(jna);
+        OpusBackend.Decoder jnaDecoder = jna.createDecoder(SAMPLE_RATE, 1);
+        OpusBackend.Decoder ffmDecoder = ffm.createDecoder(SAMPLE_RATE, 1);
+        try {
+            short[] jnaPcm = new short[SAMPLES_PER_FRAME];
+            short[] ffmPcm = new short[SAMPLES_PER_FRAME];
+            for (int frame = 0; frame < FRAMES; frame++) {
+                byte[] packet = packets[frame];
+                assertEquals(jnaDecoder.getNbSamples(packet, packet.length),
+                        ffmDecoder.getNbSamples(packet, packet.length), "samples in packet " + frame);
+                // Every third frame is lost, concealed without a packet
+                int length = frame % 3 == 2 ? 0 : packet.length;
+                int jnaDecoded = jnaDecoder.decode(packet, length, jnaPcm, SAMPLES_PER_FRAME, false);
+                int ffmDecoded = ffmDecoder.decode(packet, length, ffmPcm, SAMPLES_PER_FRAME, false);
+                assertEquals(SAMPLES_PER_FRAME, jnaDecoded, "frame " + frame);
+                assertEquals(jnaDecoded, ffmDecoded, "frame " + frame);
+                assertArrayEquals(jnaPcm, ffmPcm, "frame " + frame);
+            }
+        } finally {
+            jnaDecoder.destroy();
+            ffmDecoder.destroy();
+        }
+    }
+
+    @Test
+    void testFloatDecodersProduceTheSameSamples() {
+        byte[][] packets = encodeBoth(jna);
+        OpusBackend.Decoder jnaDecoder = jna.createDecoder(SAMPLE_RATE, 1);
+        OpusBackend.Decoder ffmDecoder = ffm.createDecoder(SAMPLE_RATE, 1);
+        try {
+            float[] jnaPcm = new float[SAMPLES_PER_FRAME + 7];
+            ByteBuffer packetBuffer = ByteBuffer.allocateDirect(OpusDecoder.MAX_PACKET_SIZE);
+            FloatBuffer ffmPcm = ByteBuffer.allocateDirect(SAMPLES_PER_FRAME * 4).order(ByteOrder.nativeOrder())
+                    .asFloatBuffer();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                byte[] packet = packets[frame];
+                boolean fec = frame % 4 == 3;
+                int jnaDecoded = jnaDecoder.decodeFloat(packet, packet.length, jnaPcm, 7, SAMPLES_PER_FRAME, fec);
+
+                packetBuffer.clear();
+                packetBuffer.put(packet).flip();
+                ffmPcm.clear();
+                int ffmDecoded = ffmDecoder.decodeFloat(packetBuffer, packet.length, ffmPcm, SAMPLES_PER_FRAME, fec);
+
+                assertEquals(jnaDecoded, ffmDecoded, "frame " + frame);
+                float[] ffmSamples = new float[ffmDecoded];
+                ffmPcm.get(0, ffmSamples);
+                assertArrayEquals(Arrays.copyOfRange(jnaPcm, 7, 7 + jnaDecoded), ffmSamples, "frame " + frame);
+            }
+        } finally {
+            jnaDecoder.destroy();
+            ffmDecoder.destroy();
+        }
+    }
+
+    @Test
+    void testErrorsMatch() {
+        OpusBackend.Decoder jnaDecoder = jna.createDecoder(SAMPLE_RATE, 1);
+        OpusBackend.Decoder ffmDecoder = ffm.createDecoder(SAMPLE_RATE, 1);
+        try {
+            // A code 3 TOC byte with no frame count byte after it
+            byte[] corrupt = {(byte) 0x03};
+            short[] pcm = new short[SAMPLES_PER_FRAME];
+            int jnaError = jnaDecoder.decode(corrupt, corrupt.length, pcm, SAMPLES_PER_FRAME, false);
+            int ffmError = ffmDecoder.decode(corrupt, corrupt.length, pcm, SAMPLES_PER_FRAME, false);
+            assertTrue(jnaError < 0, "corrupt packet decoded: " + jnaError);
+            assertEquals(jnaError, ffmError);
+            assertEquals(jna.strerror(jnaError), ffm.strerror(ffmError));
+        } finally {
+            jnaDecoder.destroy();
+            ffmDecoder.destroy();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package gg.grumble.core.opus;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OpusEncoderControllerTest {
+    private static int totalBitrate(OpusEncoderController.Settings settings) {
+        return settings.bitrate() + OpusEncoderController.overheadBitrate(settings.framesPerPacket());
+    }
+
+    @Test
+    void testDefaultsFitOneFramePerPacket() {
+        OpusEncoderController controller = new OpusEncoderController();
+        OpusEncoderController.Settings settings = controller.getSettings();
+        assertEquals(1, settings.framesPerPacket());
+        assertEquals(40000, settings.bitrate());
+        assertFalse(settings.fec());
+        assertTrue(settings.dtx());
+    }
+
+    @Test
+    void testServerLimitPacksFramesBeforeCuttingBitrate() {
+        OpusEncoderController controller = new OpusEncoderController();
+        // 16 kbit/s of headers at 20 ms packets would leave too little for the audio
+        controller.setServerMaxBandwidth(36000);
+        OpusEncoderController.Settings settings = controller.getSettings();
+        assertTrue(settings.framesPerPacket() > 1);
+        assertTrue(totalBitrate(settings) <= 36000);
+
+        controller.setServerMaxBandwidth(0);
+        assertEquals(1, controller.getSettings().framesPerPacket());
+    }
+
+    @Test
+    void testLossTurnsOnFec() {
+        OpusEncoderController controller = new OpusEncoderController();
+        controller.onPacketCounters(0, 0, 0);
+        controller.onPacketCounters(900, 20, 80);
+        OpusEncoderController.Settings settings = controller.getSettings();
+        assertTrue(settings.fec());
+        assertTrue(settings.packetLossPercent() > 0);
+
+        // A clean link lets the estimate decay again
+        long good = 900;
+        for (int i = 0; i < 30; i++) {
+            good += 250;
+            controller.onPacketCounters(good, 20, 80);
+        }
+        assertFalse(controller.getSettings().fec());
+    }
+
+    @Test
+    void testSlowLinkUsesBiggerPackets() {
+        OpusEncoderController controller = new OpusEncoderController();
+        controller.onRoundTrip(300);
+        assertEquals(2, controller.getSettings().framesPerPacket());
+        controller.setMaxFramesPerPacket(1);
+        assertEquals(1, controller.getSettings().framesPerPacket());
+    }
+}
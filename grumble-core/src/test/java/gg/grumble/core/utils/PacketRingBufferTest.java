@@ -0,0 +1,79 @@
+package gg.grumble.core.utils;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketRingBufferTest {
+    private static byte[] packet(int value, int length) {
+        byte[] data = new byte[length];
+        data[0] = (byte) value;
+        return data;
+    }
+
+    @Test
+    void testPutGetRemove() {
+        PacketRingBuffer ring = new PacketRingBuffer(10);
+        assertEquals(16, ring.capacity(), "capacity should round up to a power of two");
+
+        assertTrue(ring.put(5, packet(5, 40), 0, 40));
+        assertTrue(ring.put(3, packet(3, 20), 0, 20));
+        assertFalse(ring.put(5, packet(9, 40), 0, 40), "duplicate should be refused");
+
+        assertEquals(2, ring.size());
+        assertEquals(3, ring.first());
+        assertEquals(5, ring.last());
+        assertEquals(20, ring.length(3));
+        assertEquals(5, ring.packet(5)[0]);
+        assertNull(ring.packet(4));
+
+        assertTrue(ring.remove(3));
+        assertEquals(5, ring.first());
+        assertEquals(-1, ring.length(3), "removed sequence should report no length");
+        assertEquals(5, ring.removeFirst());
+        assertTrue(ring.isEmpty());
+        assertEquals(-1, ring.first());
+    }
+
+    @Test
+    void testWindowEvictsOldestAndRefusesTooOld() {
+        PacketRingBuffer ring = new PacketRingBuffer(8);
+        for (int seq = 0; seq < 8; seq++) {
+            assertTrue(ring.put(seq, packet(seq, 10), 0, 10));
+        }
+
+        // Sequence 8 shares a slot with 0, so the window slides and 0 is dropped
+        assertTrue(ring.put(8, packet(8, 10), 0, 10));
+        assertFalse(ring.contains(0));
+        assertEquals(1, ring.first());
+        assertEquals(8, ring.size());
+
+        // Far ahead, everything else falls out of the window
+        assertTrue(ring.put(100, packet(100, 10), 0, 10));
+        assertEquals(1, ring.size());
+        assertEquals(100, ring.first());
+
+        // Older than the window allows next to 100
+        assertFalse(ring.put(92, packet(92, 10), 0, 10));
+        assertTrue(ring.put(93, packet(93, 10), 0, 10));
+        assertEquals(93, ring.first());
+        assertEquals(100, ring.last());
+    }
+
+    @Test
+    void testSlotsAreReused() {
+        PacketRingBuffer ring = new PacketRingBuffer(4);
+        ring.put(0, packet(1, 100), 0, 100);
+        byte[] slot = ring.packet(0);
+        ring.remove(0);
+
+        ring.put(4, packet(2, 50), 0, 50);
+        assertSame(slot, ring.packet(4), "slot storage should be reused");
+        assertEquals(2, ring.packet(4)[0]);
+        assertEquals(50, ring.length(4));
+
+        ring.put(8, packet(3, 1000), 0, 1000);
+        assertEquals(1000, ring.length(8));
+        assertFalse(ring.contains(4));
+    }
+}